@@ -0,0 +1,331 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Formatter;
+import java.util.List;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** A benchmarking class whose main program may be invoked as follows:
+ *      java gitlet.Benchmark NAME [SIZE]
+ *  where NAME selects one of the benchmarks below and SIZE scales its
+ *  input. Each benchmark runs outside of any repository on scratch files
+ *  under java.io.tmpdir, prints the best time of a few warmed-up rounds for
+ *  each contender, and cleans up after itself.
+ *
+ *  @author Xinpeng WU
+ */
+public class Benchmark {
+
+    /** The number of timed rounds of each contender. */
+    private static final int ROUNDS = 5;
+
+    public static void main(String... args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: java gitlet.Benchmark NAME [SIZE]");
+            return;
+        }
+        switch (args[0]) {
+            case "checkout" -> checkout(args.length > 1 ? Integer.parseInt(args[1]) : 256);
+            case "delta" -> delta(args.length > 1 ? Integer.parseInt(args[1]) : 64);
+            case "linemerge" -> lineMerge(args.length > 1 ? Integer.parseInt(args[1]) : 16);
+            case "mergebase" -> mergeBase(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            case "daemon" -> daemon(args.length > 1 ? Integer.parseInt(args[1]) : 1000);
+            case "sha1" -> sha1Small(args.length > 1 ? Integer.parseInt(args[1]) : 100_000);
+            default -> System.out.println("No benchmark with that name exists.");
+        }
+    }
+
+    /** Compares copying a blob of MEGABYTES megabytes into a working file
+     *  through the heap (readContents + writeContents, as checkout used to)
+     *  with ObjectReader.transfer. */
+    private static void checkout(int megabytes) throws IOException {
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        File blob = join(dir, "blob");
+        File dest = join(dir, "dest");
+        byte[] chunk = new byte[1 << 20];
+        new Random(61).nextBytes(chunk);
+        try (var out = Files.newOutputStream(blob.toPath())) {
+            for (int i = 0; i < megabytes; i += 1) {
+                out.write(chunk);
+            }
+        }
+        try {
+            report("heap copy", time(() -> writeContents(dest, readContents(blob))));
+            report("transferTo", time(() -> ObjectReader.transfer(blob, dest)));
+        } catch (OutOfMemoryError excp) {
+            System.out.println("heap copy ran out of memory; rerun with a larger -Xmx");
+        } finally {
+            blob.delete();
+            dest.delete();
+            dir.delete();
+        }
+    }
+
+    /** Compares reading a text blob of MEGABYTES megabytes stored in full
+     *  with rebuilding it from a chain of MAX_DELTA_DEPTH small edits. */
+    private static void delta(int megabytes) throws IOException {
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        File full = join(dir, "full");
+        StringBuilder text = new StringBuilder();
+        for (int line = 0; text.length() < megabytes << 20; line += 1) {
+            text.append("line ").append(line).append(" of a large, frequently edited file\n");
+        }
+        byte[] base = text.toString().getBytes(StandardCharsets.UTF_8);
+        byte[][] chain = new byte[ObjectStore.MAX_DELTA_DEPTH][];
+        byte[] version = base;
+        long deltaBytes = 0;
+        for (int d = 0; d < chain.length; d += 1) {
+            byte[] next = version.clone();
+            int at = new Random(d).nextInt(next.length - 8);
+            System.arraycopy("EDITED!\n".getBytes(), 0, next, at, 8);
+            chain[d] = Delta.create(version, next);
+            deltaBytes += chain[d].length;
+            version = next;
+        }
+        writeContents(full, base);
+        System.out.printf("full blob %d bytes, %d deltas %d bytes%n",
+                version.length, chain.length, deltaBytes);
+        try {
+            report("full read", time(() -> readContents(full)));
+            report("delta chain", time(() -> {
+                byte[] result = readContents(full);
+                for (byte[] delta : chain) {
+                    result = Delta.apply(result, delta, 0);
+                }
+            }));
+        } finally {
+            full.delete();
+            dir.delete();
+        }
+    }
+
+    /** Times a line merge of a MEGABYTES-megabyte text file edited in 100
+     *  scattered places on each side (current in the first half, given in
+     *  the second, so nothing conflicts), against what mergeConflict did
+     *  before: decode both versions, wrap them whole in conflict markers and
+     *  encode the result. Reading the versions and storing the result cost
+     *  the same either way and are left out of both. */
+    private static void lineMerge(int megabytes) {
+        StringBuilder text = new StringBuilder();
+        int lines = 0;
+        for (; text.length() < megabytes << 20; lines += 1) {
+            text.append("line ").append(lines).append(" of a large, frequently edited file\n");
+        }
+        String[] base = text.toString().split("\n", -1);
+        String[] current = base.clone(), given = base.clone();
+        Random random = new Random(16);
+        for (int i = 0; i < 100; i += 1) {
+            current[random.nextInt(lines / 2)] = "current edit " + i;
+            given[lines / 2 + random.nextInt(lines / 2)] = "given edit " + i;
+        }
+        byte[] b = String.join("\n", base).getBytes(StandardCharsets.UTF_8);
+        byte[] c = String.join("\n", current).getBytes(StandardCharsets.UTF_8);
+        byte[] g = String.join("\n", given).getBytes(StandardCharsets.UTF_8);
+        LineMerge merged = new LineMerge(b, c, g);
+        System.out.printf("%d lines, %d conflicts%n", lines, merged.conflicts);
+        report("whole-file", time(() -> {
+            String currentContents = new String(c, StandardCharsets.UTF_8);
+            String givenContents = new String(g, StandardCharsets.UTF_8);
+            String mergedContents = "<<<<<<< HEAD" + '\n' + currentContents
+                    + "=======" + '\n' + givenContents + ">>>>>>>";
+            mergedContents.getBytes(StandardCharsets.UTF_8);
+        }));
+        report("line merge", time(() -> new LineMerge(b, c, g)));
+    }
+
+    /** Times loading and querying a commit graph of COMMITS commits made of
+     *  two branches that merge into each other every 1000 commits and end
+     *  in a criss-cross merge, so that their tips have two merge bases. */
+    private static void mergeBase(int commits) throws IOException {
+        Graph graph = Graph.empty(commits);
+        ObjectId[] tips = {fakeID(0), null};
+        graph.add(tips[0], 0);
+        tips[1] = tips[0];
+        for (int i = 1; i < commits - 2; i += 1) {
+            int side = i % 2;
+            ObjectId id = fakeID(i);
+            if (i % 1000 < 2) {
+                graph.add(id, i, tips[side], tips[1 - side]);
+            } else {
+                graph.add(id, i, tips[side]);
+            }
+            tips[side] = id;
+        }
+        ObjectId left = fakeID(commits - 2), right = fakeID(commits - 1);
+        graph.add(left, commits - 2, tips[0], tips[1]);
+        graph.add(right, commits - 1, tips[1], tips[0]);
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        File file = join(dir, "commitsGraph");
+        graph.writeTo(file);
+        System.out.printf("%d commits, merge bases %s%n", graph.V(), graph.mergeBases(left, right));
+        try {
+            report("load", time(() -> Graph.load(file)));
+            report("merge bases", time(() -> graph.mergeBases(left, right)));
+            report("ancestor (deep)", time(() -> graph.isAncestor(fakeID(0), left)));
+        } finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    /** Compares hashing COUNT commit-sized inputs and converting the UIDs
+     *  between hex and raw bytes with a new MessageDigest and a Formatter
+     *  per call, as sha1 used to, and with the per-thread digest and table
+     *  hex conversion of Utils. */
+    private static void sha1Small(int count) {
+        byte[][] inputs = new byte[count][];
+        Random random = new Random(23);
+        for (int i = 0; i < count; i += 1) {
+            inputs[i] = new byte[200];
+            random.nextBytes(inputs[i]);
+        }
+        report("getInstance+Formatter", time(() -> {
+            for (byte[] input : inputs) {
+                hexToBytesByDigit(sha1ByFormatter(input));
+            }
+        }));
+        report("sha1+tables", time(() -> {
+            for (byte[] input : inputs) {
+                hexToBytes(sha1(input));
+            }
+        }));
+        report("sha1Bytes", time(() -> {
+            for (byte[] input : inputs) {
+                sha1Bytes(input);
+            }
+        }));
+    }
+
+    /** Returns the SHA-1 UID of CONTENTS as sha1 used to compute it. */
+    private static String sha1ByFormatter(byte[] contents) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(contents);
+            Formatter result = new Formatter();
+            for (byte b : md.digest()) {
+                result.format("%02x", b);
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the raw bytes of the hexadecimal UID ID as hexToBytes used
+     *  to compute them. */
+    private static byte[] hexToBytesByDigit(String id) {
+        byte[] result = new byte[id.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) (Character.digit(id.charAt(2 * i), 16) << 4
+                    | Character.digit(id.charAt(2 * i + 1), 16));
+        }
+        return result;
+    }
+
+    /** Returns a made-up commit UID for the number I. */
+    private static ObjectId fakeID(int i) {
+        return ObjectId.parse(sha1(Integer.toString(i)));
+    }
+
+    /** Compares running status on a scratch repository of FILES committed
+     *  files as a new JVM per command, as a new JVM handing the command to a
+     *  daemon, and as a bare request over the daemon's socket, which is what
+     *  any thin client not written in Java would pay. */
+    private static void daemon(int files) throws IOException {
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        File socket = join(dir, ".gitlet", "daemon.sock");
+        Process daemon = null;
+        try {
+            gitlet(dir, "init").waitFor();
+            daemon = gitlet(dir, "daemon");
+            SocketChannel first;
+            while ((first = Daemon.connect(socket)) == null) {
+                Thread.sleep(10);
+            }
+            Daemon.send(first, new String[] {"status"}, OutputStream.nullOutputStream());
+            for (int i = 0; i < files; i += 1) {
+                writeContents(join(dir, "f" + i + ".txt"), "file " + i + "\n");
+                request(socket, "add", "f" + i + ".txt");
+            }
+            request(socket, "commit", "files");
+            report("JVM + daemon", time(() -> waitFor(gitlet(dir, "status"))));
+            report("socket", time(() -> request(socket, "status")));
+            request(socket, "daemon", "stop");
+            daemon.waitFor();
+            report("JVM", time(() -> waitFor(gitlet(dir, "status"))));
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (daemon != null) {
+                daemon.destroy();
+            }
+            for (File file : dir.listFiles((d, name) -> name.endsWith(".txt"))) {
+                file.delete();
+            }
+            try (var paths = Files.walk(join(dir, ".gitlet").toPath())) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+            dir.delete();
+        }
+    }
+
+    /** Starts gitlet.Main with ARGS in DIR, discarding its output. */
+    private static Process gitlet(File dir, String... args) {
+        List<String> command = new ArrayList<>(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), "gitlet.Main"));
+        command.addAll(List.of(args));
+        try {
+            return new ProcessBuilder(command).directory(dir)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Waits for PROCESS to exit. */
+    private static void waitFor(Process process) {
+        try {
+            process.waitFor();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Sends the command ARGS to the daemon listening on SOCKET, discarding
+     *  its output. */
+    private static void request(File socket, String... args) {
+        Daemon.send(Daemon.connect(socket), args, OutputStream.nullOutputStream());
+    }
+
+    /** Returns the best of ROUNDS timings of TASK, in nanoseconds, after
+     *  one untimed warm-up run. */
+    private static long time(Runnable task) {
+        task.run();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i += 1) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /** Prints the timing NANOS of the contender NAME. */
+    private static void report(String name, long nanos) {
+        System.out.printf("%-20s %10.2f ms%n", name, nanos / 1e6);
+    }
+}
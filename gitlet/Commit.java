@@ -2,12 +2,28 @@ package gitlet;
 
 // TODO: any imports you need here
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
+import static gitlet.Utils.*;
+
 /** Represents a gitlet commit object.
  *  TODO: It's a good idea to give a description here of what else this Class
  *  does at a high level.
+ *  A commit is stored (and its UID computed) in this encoding:
+ *      "GCMT" version timestamp nparents parent* message tree
+ *  with the timestamp in milliseconds since the epoch, UIDs raw and the
+ *  message as a length and UTF-8 bytes. Its files are kept in the root Tree
+ *  TREE and only read when they are asked for. Version 1 listed the files
+ *  themselves, as (name uid) records, in place of the tree; commits written
+ *  before that are Java-serialized. Both are still read, and the migrate
+ *  command rewrites them.
  *
  *  @author Xinpeng WU
  */
@@ -27,15 +43,29 @@ public class Commit implements Serializable {
     private Date timestamp;
 
     /** The parent commit of this Commit */
-    private List<String> parents;
+    private List<ObjectId> parents;
+
+    /** The mapping of file names to blob references, or null until it is
+     *  read from TREE. */
+    private Map<String, ObjectId> blobs;
 
-    /** The mapping of file names to blob references */
-    private Map<String, String> blobs;
+    /** The UID of the root tree holding BLOBS, or null until it is stored
+     *  if BLOBS was set directly. */
+    private ObjectId tree;
 
-    public Commit (String message, String... parent){
+    /** Magic number and format version of encoded commits. */
+    private static final int MAGIC = 0x47434d54; // "GCMT"
+    private static final int VERSION = 2;
+    /** The serialVersionUID that older versions got by default, pinned so
+     *  that their commits can still be deserialized. */
+    private static final long serialVersionUID = -1803051625291627193L;
+    /** First bytes of a Java-serialized commit. */
+    private static final int SERIALIZED_MAGIC = 0xaced;
+
+    public Commit (String message, ObjectId... parent){
         this.message = message;
-        this.parents = new LinkedList<>();
-        for (String p : parent){
+        this.parents = new ArrayList<>(2);
+        for (ObjectId p : parent){
             this.parents.add(p);
         }
         this.timestamp = parent == null ? new Date(0) : new Date();
@@ -44,8 +74,136 @@ public class Commit implements Serializable {
 
     public String getMessage(){ return this.message; }
     public Date getTimestamp(){ return this.timestamp; }
-    public List<String> getParents() { return this.parents; }
-    public Map<String, String> getBlobs() { return this.blobs; }
-    public void setBlobs(Map<String, String> Blobs){ this.blobs = Blobs; }
+    public List<ObjectId> getParents() { return this.parents; }
+    public Map<String, ObjectId> getBlobs() {
+        if (this.blobs == null){ this.blobs = Tree.files(this.tree); }
+        return this.blobs;
+    }
+    public void setBlobs(Map<String, ObjectId> Blobs){ this.blobs = Blobs; this.tree = null; }
+
+    /** Returns the blob UID of file NAME in this commit, or null if it is
+     *  not tracked, without reading all of its files. */
+    public ObjectId getBlobID(String name){
+        return this.blobs != null ? this.blobs.get(name) : Tree.get(this.tree, name);
+    }
+
+    /** Returns the UID of the root tree of this commit, storing the tree
+     *  first if its files were set directly. */
+    public ObjectId getTree(){
+        if (this.tree == null){ this.tree = Tree.write(this.blobs); }
+        return this.tree;
+    }
+
+    /** Returns the number of files of this commit held in memory, which is
+     *  zero until they are first needed. */
+    int loadedFiles(){ return this.blobs == null ? 0 : this.blobs.size(); }
+
+    /** Sets the files of this commit to those of the root tree TREE. */
+    public void setTree(ObjectId tree){ this.tree = tree; this.blobs = null; }
+
+    /** Returns this commit with its parents replaced by PARENTS. */
+    Commit withParents(List<ObjectId> parents){
+        Commit copy = new Commit(message);
+        copy.timestamp = timestamp;
+        copy.parents = new ArrayList<>(parents);
+        copy.blobs = blobs;
+        copy.tree = tree;
+        return copy;
+    }
+
+    /** Returns the encoding of this commit. */
+    byte[] encode(){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)){
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(timestamp.getTime());
+            out.writeByte(parents.size());
+            for (ObjectId parent : parents){
+                out.write(parent.toBytes());
+            }
+            writeString(out, message);
+            out.write(getTree().toBytes());
+        } catch (IOException excp){
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the commit encoded in CONTENTS, either by encode or, for
+     *  commits written by older versions, by Java serialization. */
+    static Commit decode(byte[] contents){
+        if (isSerialized(contents)){
+            return fromSerialized(deserialize(contents, Commit.class));
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents))){
+            int version = in.readInt() == MAGIC ? in.readUnsignedByte() : -1;
+            if (version != 1 && version != VERSION){
+                throw new IllegalArgumentException("unknown commit format");
+            }
+            Commit commit = new Commit(null);
+            commit.timestamp = new Date(in.readLong());
+            byte[] uid = new byte[UID_BYTES];
+            for (int i = in.readUnsignedByte(); i > 0; i -= 1){
+                in.readFully(uid);
+                commit.parents.add(ObjectId.of(uid, 0));
+            }
+            commit.message = readString(in);
+            if (version == 1){
+                for (int i = in.readInt(); i > 0; i -= 1){
+                    String name = readString(in);
+                    in.readFully(uid);
+                    commit.blobs.put(name, ObjectId.of(uid, 0));
+                }
+            }else {
+                in.readFully(uid);
+                commit.setTree(ObjectId.of(uid, 0));
+            }
+            return commit;
+        } catch (IOException excp){
+            throw new IllegalArgumentException("corrupt commit: " + excp.getMessage());
+        }
+    }
+
+    /** Returns the commit OLD as read by Java serialization, with the
+     *  hexadecimal UIDs it was written with (its PARENTS and the values of
+     *  its BLOBS are Strings, whatever their declared types) made ObjectIds. */
+    @SuppressWarnings("unchecked")
+    private static Commit fromSerialized(Commit old){
+        Commit commit = new Commit(old.message);
+        commit.timestamp = old.timestamp;
+        for (Object parent : (List<Object>) (List<?>) old.parents){
+            commit.parents.add(ObjectId.parse((String) parent));
+        }
+        for (Map.Entry<String, Object> e : ((Map<String, Object>) (Map<String, ?>) old.blobs).entrySet()){
+            commit.blobs.put(e.getKey(), ObjectId.parse((String) e.getValue()));
+        }
+        return commit;
+    }
+
+    /** Returns true if CONTENTS is a commit written by Java serialization. */
+    private static boolean isSerialized(byte[] contents){
+        return contents.length >= 2
+                && ((contents[0] & 0xff) << 8 | (contents[1] & 0xff)) == SERIALIZED_MAGIC;
+    }
+
+    /** Returns true if CONTENTS is a commit written in an older format. */
+    static boolean isOutdated(byte[] contents){
+        return isSerialized(contents) || contents.length < 5 || contents[4] != VERSION;
+    }
+
+    /** Writes S to OUT as its length and UTF-8 bytes. */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Reads a string written by writeString from IN. */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
 
 }
@@ -0,0 +1,247 @@
+package gitlet;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/** A long-running process that serves the commands of one repository, so
+ *  that they skip starting a JVM and find the commit graph, the stat index
+ *  and recently read objects already in memory. It listens on the
+ *  Unix-domain socket SOCKET, one command per connection: the client writes
+ *  the arguments, each followed by a NUL byte, and shuts down its side; the
+ *  daemon runs the command and writes back what it printed, then closes the
+ *  connection. Main is such a client: it hands its arguments to the daemon
+ *  whenever the socket answers and runs the command itself otherwise, so a
+ *  daemon changes nothing but speed. Commands run one at a time.
+ *  What the daemon keeps in memory is dropped as soon as a file it was read
+ *  from changes, as told by a WatchService on GITLET_DIR, PACKS and CWD
+ *  whose events are all handled before each command (see sync). This covers
+ *  other processes writing to the repository as well as the daemon's own
+ *  writes, which are thus read back once. Objects never change, so the
+ *  object caches are kept. Events in CWD keep the WorkTree up to date, so
+ *  that commands only look at working files that changed.
+ *
+ *  @author Xinpeng WU
+ */
+class Daemon {
+    /** The socket of the daemon of this repository. */
+    static final File SOCKET = join(GITLET_DIR, "daemon.sock");
+    /** The prefix of the files made in GITLET_DIR to sync with the watcher. */
+    private static final String COOKIE = "daemon.cookie.";
+    /** How long the watcher may take to report a change, in milliseconds. */
+    private static final long SYNC_TIMEOUT = 1000;
+    /** The number of cookie files made so far. */
+    private static int cookies;
+    /** Whether the watcher reports changes promptly, as checked at start.
+     *  If not (a polling WatchService, say), nothing read from files is kept
+     *  from one command to the next. */
+    private static boolean watching;
+
+    /** Hands the command ARGS to the daemon of this repository and copies its
+     *  output to System.out. Returns false, having done nothing, if no daemon
+     *  answers. */
+    static boolean forward(String[] args){
+        if (!SOCKET.exists()){ return false; }
+        SocketChannel channel = connect(SOCKET);
+        if (channel == null){ return false; }
+        send(channel, args, System.out);
+        System.out.flush();
+        return true;
+    }
+
+    /** Returns a connection to the daemon listening on SOCKET, or null if
+     *  there is none (SOCKET may be left over from a daemon that was killed). */
+    static SocketChannel connect(File socket){
+        try {
+            return SocketChannel.open(UnixDomainSocketAddress.of(socket.toPath()));
+        } catch (IOException excp){
+            return null;
+        }
+    }
+
+    /** Sends the command ARGS over CHANNEL, copies the output to OUT and
+     *  closes CHANNEL. */
+    static void send(SocketChannel channel, String[] args, OutputStream out){
+        try (channel){
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            for (String arg : args){
+                request.write(arg.getBytes(StandardCharsets.UTF_8));
+                request.write(0);
+            }
+            OutputStream toDaemon = Channels.newOutputStream(channel);
+            toDaemon.write(request.toByteArray());
+            channel.shutdownOutput();
+            Channels.newInputStream(channel).transferTo(out);
+        } catch (IOException excp){
+            // the command may have run, so it must not be run again here
+            throw new IllegalArgumentException("lost the daemon: " + excp.getMessage());
+        }
+    }
+
+    /** Serves commands until told to stop with "daemon stop". */
+    static void serve(){
+        try (SocketChannel running = connect(SOCKET)){
+            if (running != null){ throw error("A daemon is already running."); }
+        } catch (IOException excp){
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        SOCKET.delete();
+        PrintStream console = System.out;
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             WatchService watcher = FileSystems.getDefault().newWatchService()){
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            SOCKET.deleteOnExit();
+            GITLET_DIR.toPath().register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            if (PACKS.isDirectory()){ PACKS.toPath().register(watcher, ENTRY_CREATE, ENTRY_DELETE); }
+            CWD.toPath().register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            watching = sync(watcher);
+            if (watching){ WorkTree.track(); }
+            console.println("Serving " + CWD + ".");
+            while (true){
+                try (SocketChannel client = server.accept()){
+                    String[] args = readRequest(client);
+                    if (!watching){
+                        reloadAll();
+                    }else if (!sync(watcher)){
+                        reloadAll();
+                        WorkTree.rescan();
+                    }
+                    PrintStream out = new PrintStream(new BufferedOutputStream(
+                            Channels.newOutputStream(client), 1 << 16), false, StandardCharsets.UTF_8);
+                    if (args.length == 2 && args[0].equals("daemon") && args[1].equals("stop")){
+                        out.println("Daemon stopped.");
+                        out.flush();
+                        break;
+                    }
+                    System.setOut(out);
+                    try {
+                        run(args);
+                    } finally {
+                        System.setOut(console);
+                        out.flush();
+                    }
+                } catch (IOException excp){
+                    // the client went away; serve the next one
+                }
+            }
+        } catch (IOException excp){
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /** Runs the command ARGS as Main does, printing on System.out. */
+    private static void run(String[] args){
+        try {
+            if (args.length > 0 && args[0].equals("daemon")){
+                throw error("A daemon is already running.");
+            }
+            Main.run(args);
+        } catch (GitletException excp){
+            if (excp.getMessage() != null){ System.out.println(excp.getMessage()); }
+        } catch (RuntimeException excp){
+            // the command died half-way, so nothing kept in memory is trusted
+            excp.printStackTrace();
+            System.out.println("Internal error: " + excp.getMessage());
+            reloadAll();
+        }
+    }
+
+    /** Returns the arguments sent by CLIENT. */
+    private static String[] readRequest(SocketChannel client) throws IOException {
+        byte[] request = Channels.newInputStream(client).readAllBytes();
+        List<String> args = new ArrayList<>();
+        for (int start = 0, i = 0; i < request.length; i += 1){
+            if (request[i] == 0){
+                args.add(new String(request, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        return args.toArray(new String[0]);
+    }
+
+    /** Handles every change made to the repository and the working
+     *  directory before this call, dropping what is kept in memory from
+     *  changed files and telling the WorkTree about changed working files.
+     *  Returns false if the watcher did not report them within SYNC_TIMEOUT.
+     *  The events of all watched directories come through one queue in the
+     *  order they happened (one inotify instance, on Linux), so once the
+     *  creation of a new cookie file is reported, every earlier event is
+     *  waiting in some key. */
+    private static boolean sync(WatchService watcher) throws IOException {
+        String cookie = COOKIE + cookies;
+        cookies += 1;
+        Path cookieFile = GITLET_DIR.toPath().resolve(cookie);
+        Files.createFile(cookieFile);
+        try {
+            long deadline = System.currentTimeMillis() + SYNC_TIMEOUT;
+            for (boolean synced = false; !synced; ){
+                WatchKey key = watcher.poll(Math.max(0, deadline - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+                if (key == null){ return false; }
+                synced = handle(watcher, key, cookie);
+            }
+            // each directory has its own key, so earlier events may wait in keys queued after it
+            for (WatchKey key = watcher.poll(); key != null; key = watcher.poll()){
+                handle(watcher, key, cookie);
+            }
+            return true;
+        } catch (InterruptedException excp){
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            Files.deleteIfExists(cookieFile);
+        }
+    }
+
+    /** Handles the events of KEY, returning true if they include the
+     *  creation of the file COOKIE. */
+    private static boolean handle(WatchService watcher, WatchKey key, String cookie) throws IOException {
+        Path dir = (Path) key.watchable();
+        boolean synced = false;
+        for (WatchEvent<?> event : key.pollEvents()){
+            if (event.kind() == OVERFLOW){
+                reloadAll();
+                WorkTree.rescan();
+                continue;
+            }
+            String name = event.context().toString();
+            if (dir.equals(CWD.toPath())){
+                WorkTree.changed(name);
+            }else if (dir.equals(PACKS.toPath())){
+                ObjectStore.reloadPacks();
+            }else if (name.equals(cookie)){
+                synced = true;
+            }else if (name.equals(COMMITSGRAPH.getName())){
+                reloadGraph();
+            }else if (name.equals(INDEX.getName())){
+                StatIndex.reload();
+            }else if (name.equals(PACKS.getName())){
+                ObjectStore.reloadPacks();
+                if (PACKS.isDirectory()){ PACKS.toPath().register(watcher, ENTRY_CREATE, ENTRY_DELETE); }
+            }
+        }
+        key.reset();
+        return synced;
+    }
+
+    /** Drops everything kept in memory that is read from files. */
+    private static void reloadAll(){
+        reloadGraph();
+        StatIndex.reload();
+        ObjectStore.reloadPacks();
+    }
+}
@@ -0,0 +1,141 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/** Encodes one byte sequence (the target) as a delta against another (the
+ *  base), and reconstructs the target from the base and the delta.
+ *  A delta is the two lengths followed by a sequence of instructions:
+ *      baseLength targetLength (COPY offset length | INSERT length bytes)*
+ *  where every number is an unsigned variable-length integer. COPY appends
+ *  a range of the base to the output; INSERT appends literal bytes.
+ *  Matches are found by indexing the base in aligned BLOCK-byte blocks and
+ *  looking up every BLOCK-byte window of the target, as Git does.
+ *
+ *  @author Xinpeng WU
+ */
+class Delta {
+    /** Instruction codes. */
+    private static final int COPY = 1;
+    private static final int INSERT = 0;
+    /** The length of the indexed blocks, which is also the shortest copy. */
+    private static final int BLOCK = 16;
+    /** The number of candidate blocks tried for each window of the target. */
+    private static final int MAX_CANDIDATES = 16;
+
+    /** Returns a delta that turns BASE into TARGET. */
+    static byte[] create(byte[] base, byte[] target){
+        ByteArrayOutputStream out = new ByteArrayOutputStream(target.length / 8 + 16);
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        int blocks = base.length / BLOCK;
+        int[] heads = new int[Integer.highestOneBit(Math.max(blocks, 1) * 2)];
+        int[] next = new int[blocks];
+        Arrays.fill(heads, -1);
+        for (int b = blocks - 1; b >= 0; b -= 1){ // earlier blocks end up first
+            int slot = hash(base, b * BLOCK) & (heads.length - 1);
+            next[b] = heads[slot];
+            heads[slot] = b;
+        }
+        int insertStart = 0;
+        int i = 0;
+        while (blocks > 0 && i + BLOCK <= target.length){
+            int bestOffset = -1, bestLength = 0, tries = 0;
+            int slot = hash(target, i) & (heads.length - 1);
+            for (int b = heads[slot]; b >= 0 && tries < MAX_CANDIDATES; b = next[b], tries += 1){
+                int offset = b * BLOCK;
+                int length = 0;
+                while (offset + length < base.length && i + length < target.length
+                        && base[offset + length] == target[i + length]){
+                    length += 1;
+                }
+                if (length > bestLength){
+                    bestOffset = offset;
+                    bestLength = length;
+                }
+            }
+            if (bestLength < BLOCK){
+                i += 1;
+                continue;
+            }
+            while (bestOffset > 0 && i > insertStart && base[bestOffset - 1] == target[i - 1]){
+                bestOffset -= 1; i -= 1; bestLength += 1;
+            }
+            writeInsert(out, target, insertStart, i);
+            out.write(COPY);
+            writeVarint(out, bestOffset);
+            writeVarint(out, bestLength);
+            i += bestLength;
+            insertStart = i;
+        }
+        writeInsert(out, target, insertStart, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the target reconstructed from BASE and the delta stored in
+     *  DELTA starting at OFFSET. */
+    static byte[] apply(byte[] base, byte[] delta, int offset){
+        int[] pos = {offset};
+        if (readVarint(delta, pos) != base.length){
+            throw Utils.error("Delta does not apply to its base.");
+        }
+        byte[] result = new byte[readVarint(delta, pos)];
+        int written = 0;
+        while (pos[0] < delta.length){
+            int op = delta[pos[0]++];
+            if (op == COPY){
+                int from = readVarint(delta, pos);
+                int length = readVarint(delta, pos);
+                System.arraycopy(base, from, result, written, length);
+                written += length;
+            }else {
+                int length = readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], result, written, length);
+                pos[0] += length;
+                written += length;
+            }
+        }
+        if (written != result.length){
+            throw Utils.error("Delta is truncated.");
+        }
+        return result;
+    }
+
+    /** Appends an INSERT of DATA[FROM..TO) to OUT, if it is not empty. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int from, int to){
+        if (from < to){
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(data, from, to - from);
+        }
+    }
+
+    /** Returns a hash of the BLOCK bytes of DATA starting at FROM. */
+    private static int hash(byte[] data, int from){
+        int h = 0;
+        for (int k = from; k < from + BLOCK; k += 1){
+            h = 31 * h + data[k];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /** Appends the unsigned variable-length encoding of VALUE to OUT. */
+    private static void writeVarint(ByteArrayOutputStream out, int value){
+        while ((value & ~0x7f) != 0){
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Reads an unsigned variable-length integer from DATA at POS[0],
+     *  advancing POS[0] past it. */
+    private static int readVarint(byte[] data, int[] pos){
+        int value = 0;
+        for (int shift = 0; ; shift += 7){
+            int b = data[pos[0]++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0){ return value; }
+        }
+    }
+}
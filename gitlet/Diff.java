@@ -0,0 +1,96 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Myers' difference algorithm, in its linear-space form: the middle snake
+ *  of an optimal edit script is found by searching forwards and backwards
+ *  at once, and the two halves on either side of it are diffed recursively.
+ *  It works on sequences of ints, such as interned lines, and takes time
+ *  O((N + M) D) and space O(N + M) for sequences of lengths N and M that
+ *  are D edits apart. Common prefixes and suffixes are skipped first, so
+ *  small edits to large files cost little more than one comparison pass.
+ *
+ *  @author Xinpeng WU
+ */
+class Diff {
+    /** Returns the differences between A and B as hunks {aStart, aEnd,
+     *  bStart, bEnd}, in order, each meaning that A[aStart, aEnd) is replaced
+     *  by B[bStart, bEnd). Hunks are separated by at least one common
+     *  element. */
+    static List<int[]> hunks(int[] a, int[] b){
+        List<int[]> hunks = new ArrayList<>();
+        int max = (a.length + b.length + 1) / 2 + 1;
+        diff(a, 0, a.length, b, 0, b.length, new int[2 * max + 2], new int[2 * max + 2], hunks);
+        return hunks;
+    }
+
+    /** Appends the hunks of A[aLo, aHi) against B[bLo, bHi) to HUNKS,
+     *  using VF and VB as scratch space. */
+    private static void diff(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                             int[] vf, int[] vb, List<int[]> hunks){
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]){ aLo += 1; bLo += 1; }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]){ aHi -= 1; bHi -= 1; }
+        if (aLo == aHi || bLo == bHi){
+            if (aLo < aHi || bLo < bHi){ add(hunks, aLo, aHi, bLo, bHi); }
+            return;
+        }
+        int[] snake = middleSnake(a, aLo, aHi, b, bLo, bHi, vf, vb);
+        diff(a, aLo, snake[0], b, bLo, snake[1], vf, vb, hunks);
+        diff(a, snake[2], aHi, b, snake[3], bHi, vf, vb, hunks);
+    }
+
+    /** Appends the hunk {aLo, aHi, bLo, bHi} to HUNKS, joining it to the
+     *  last hunk if they touch. */
+    private static void add(List<int[]> hunks, int aLo, int aHi, int bLo, int bHi){
+        if (!hunks.isEmpty()){
+            int[] last = hunks.get(hunks.size() - 1);
+            if (last[1] == aLo && last[3] == bLo){
+                last[1] = aHi;
+                last[3] = bHi;
+                return;
+            }
+        }
+        hunks.add(new int[] {aLo, aHi, bLo, bHi});
+    }
+
+    /** Returns the middle snake {x, y, u, v} of an optimal edit script from
+     *  A[aLo, aHi) to B[bLo, bHi): the elements A[x, u) equal B[y, v) and lie
+     *  halfway along the script. The first and last elements of the two
+     *  ranges differ, so the script has at least two edits and both halves
+     *  are smaller than the whole. VF and VB hold, for each diagonal k, the
+     *  furthest x reached from the start and from the end. */
+    private static int[] middleSnake(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                                     int[] vf, int[] vb){
+        int n = aHi - aLo, m = bHi - bLo, delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2, off = max + 1;
+        vf[off + 1] = 0;
+        vb[off + 1] = 0;
+        for (int d = 0; d <= max; d += 1){
+            for (int k = -d; k <= d; k += 2){
+                int x = k == -d || (k != d && vf[off + k - 1] < vf[off + k + 1])
+                        ? vf[off + k + 1] : vf[off + k - 1] + 1;
+                int y = x - k, sx = x, sy = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]){ x += 1; y += 1; }
+                vf[off + k] = x;
+                int kb = delta - k;
+                if (odd && kb >= -(d - 1) && kb <= d - 1 && x + vb[off + kb] >= n){
+                    return new int[] {aLo + sx, bLo + sy, aLo + x, bLo + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2){
+                int x = k == -d || (k != d && vb[off + k - 1] < vb[off + k + 1])
+                        ? vb[off + k + 1] : vb[off + k - 1] + 1;
+                int y = x - k, sx = x, sy = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]){ x += 1; y += 1; }
+                vb[off + k] = x;
+                int kf = delta - k;
+                if (!odd && kf >= -d && kf <= d && x + vf[off + kf] >= n){
+                    return new int[] {aHi - x, bHi - y, aHi - sx, bHi - sy};
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+}
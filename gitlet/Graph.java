@@ -1,95 +1,505 @@
 package gitlet;
 
-import java.io.Serializable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
-public class Graph implements Serializable { // directed graph
-    private List<ArrayList<Integer>> adjList;
-    private Map<String, Integer> labels;
-    public Graph(String initialCommitID){
-        labels = new HashMap<>();
-        labels.put(initialCommitID, 0);
-        adjList = new ArrayList<>();
-        adjList.add(new ArrayList<>());
+import static gitlet.Utils.*;
+
+/** The commit graph: every commit with its parents, generation number and
+ *  timestamp, labelled 0, 1, 2, ... in an order where parents come before
+ *  their children. It is kept in parallel arrays indexed by label, and on
+ *  disk as a header followed by one fixed-size record per commit:
+ *      "CGPH" version count (uid parent1 parent2 generation timestamp)*
+ *  where parents are labels (NONE if absent). The file is memory-mapped to
+ *  load it, and a new commit is added by appending its record and then
+ *  bumping the count, so the graph is never rewritten in full.
+ *  The generation number of a commit is one more than the largest one of its
+ *  parents (1 for the initial commit), so a commit can only be an ancestor
+ *  of commits with a larger generation; ancestry queries use this to stop
+ *  walking as soon as they are below the generation they are looking for.
+ *  Commits are found by UID through an open-addressing table of labels that
+ *  hashes and compares the raw UIDs in place, so the graph holds no objects
+ *  per commit and loading it is a few bulk copies. Abbreviated UIDs are
+ *  resolved by binary search over the labels sorted by UID, with a fanout
+ *  table of where each first byte starts; these are built on first use and
+ *  kept sorted as commits are added.
+ *
+ *  @author Xinpeng WU
+ */
+public class Graph { // directed acyclic graph, edges point from child to parent
+    /** Label of an absent parent. */
+    static final int NONE = -1;
+    /** Magic number and format version of the graph file. */
+    private static final int MAGIC = 0x43475048; // "CGPH"
+    private static final int VERSION = 1;
+    /** Sizes of the file header and of each record. */
+    private static final int HEADER = 12;
+    private static final int RECORD = UID_BYTES + 4 + 4 + 4 + 8;
+
+    /** The file backing this graph, or null while it is only in memory. */
+    private File file;
+    /** The number of commits. */
+    private int size;
+    /** The raw UIDs, UID_BYTES bytes per label. */
+    private byte[] uids;
+    /** The labels of the first and second parent of each label. */
+    private int[] parent1;
+    private int[] parent2;
+    /** The generation number of each label. */
+    private int[] generation;
+    /** The commit time of each label, in milliseconds since the epoch. */
+    private long[] timestamps;
+    /** Open-addressing hash table of label + 1 (0 for an empty slot),
+     *  keyed on the raw UIDs and probed linearly. Its length is a power of
+     *  two at least twice the number of commits. */
+    private int[] table;
+    /** The labels in the order of their UIDs, or null until first needed. */
+    private int[] byUid;
+    /** The number of labels in BYUID whose UID starts with a byte below b,
+     *  for each b from 0 to 256. */
+    private int[] fanout;
+
+    private Graph(File file, int capacity){
+        this.file = file;
+        uids = new byte[capacity * UID_BYTES];
+        parent1 = new int[capacity];
+        parent2 = new int[capacity];
+        generation = new int[capacity];
+        timestamps = new long[capacity];
+        table = new int[Integer.highestOneBit(capacity) * 4];
+    }
+
+    /** Returns a new graph stored in FILE that holds just the initial commit
+     *  INITIALCOMMITID, made at TIMESTAMP. */
+    static Graph create(File file, ObjectId initialCommitID, long timestamp){
+        Graph graph = empty(16);
+        graph.add(initialCommitID, timestamp);
+        graph.writeTo(file);
+        return graph;
+    }
+
+    /** Returns an empty graph with room for CAPACITY commits that is not
+     *  backed by any file until it is written with writeTo. */
+    static Graph empty(int capacity){
+        return new Graph(null, Math.max(16, capacity));
+    }
+
+    /** Writes the whole graph to FILE, which then backs it. FILE is replaced
+     *  whole, through a temporary file, and not staged in the Journal since
+     *  commits are appended to it at once. */
+    void writeTo(File file){
+        ByteBuffer out = ByteBuffer.allocate(HEADER + size * RECORD);
+        out.putInt(MAGIC).putInt(VERSION).putInt(size);
+        for (int v = 0; v < size; v += 1){
+            out.put(uids, v * UID_BYTES, UID_BYTES).putInt(parent1[v]).putInt(parent2[v])
+                    .putInt(generation[v]).putLong(timestamps[v]);
+        }
+        try {
+            File tmp = File.createTempFile("tmp-graph", null, file.getParentFile());
+            Files.write(tmp.toPath(), out.array());
+            Journal.syncNow(tmp);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp){
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.sync(file);
+        this.file = file;
     }
-    public void addEdge(String newCommit, String pastCommit){ // pastCommit point to newCommit
-        int w = labels.get(pastCommit);
-        int v = updateLabels(newCommit);
-        while (adjList.size() - 1 < v){
-            adjList.add(new ArrayList<>());
+
+    /** Returns the graph stored in FILE. If FILE is missing or was written in
+     *  an older format, the graph is rebuilt from the stored commits. */
+    static Graph load(File file){
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.limit() >= HEADER && in.getInt(0) == MAGIC && in.getInt(4) == VERSION){
+                int count = in.getInt(8);
+                if ((long) HEADER + (long) count * RECORD <= in.limit()){
+                    Graph graph = new Graph(file, count + 16); // a command adds one commit at most
+                    in.position(HEADER);
+                    for (int v = 0; v < count; v += 1){
+                        in.get(graph.uids, v * UID_BYTES, UID_BYTES);
+                        graph.parent1[v] = in.getInt();
+                        graph.parent2[v] = in.getInt();
+                        graph.generation[v] = in.getInt();
+                        graph.timestamps[v] = in.getLong();
+                        graph.insert(v);
+                    }
+                    graph.size = count;
+                    return graph;
+                }
+            }
+        } catch (IOException excp){
+            // fall through and rebuild
         }
-        adjList.get(w).add(v);
+        return rebuild(file);
     }
-    private int updateLabels(String s){
-        Integer v = labels.get(s);
-        if (v == null){
-            v = labels.size();
-            labels.put(s, v);
+
+    /** Returns a graph of every stored commit, written afresh to FILE. */
+    private static Graph rebuild(File file){
+        Map<ObjectId, Commit> commits = new TreeMap<>();
+        for (String id : ObjectStore.commitIDs()){
+            commits.put(ObjectId.parse(id), Commit.decode(ObjectStore.readCommit(id)));
         }
-        return v;
+        Graph graph = empty(commits.size());
+        Set<ObjectId> added = new HashSet<>();
+        for (ObjectId id : commits.keySet()){ // depth-first, so that parents are added first
+            Deque<ObjectId> stack = new ArrayDeque<>();
+            stack.push(id);
+            while (!stack.isEmpty()){
+                ObjectId top = stack.peek();
+                if (added.contains(top)){ stack.pop(); continue; }
+                boolean ready = true;
+                for (ObjectId parent : commits.get(top).getParents()){
+                    if (!added.contains(parent)){ stack.push(parent); ready = false; }
+                }
+                if (!ready){ continue; }
+                stack.pop();
+                Commit commit = commits.get(top);
+                graph.add(top, commit.getTimestamp().getTime(),
+                        commit.getParents().toArray(new ObjectId[0]));
+                added.add(top);
+            }
+        }
+        graph.writeTo(file);
+        return graph;
     }
-    public Iterable<Integer> adj(int v){
-        if (v >= adjList.size()) return new ArrayList<>();
-        return adjList.get(v);
+
+    /** Adds the commit NEWCOMMIT made at TIMESTAMP with PARENTS (first parent
+     *  first) and appends it to the graph file, if there is one. Adding a
+     *  commit that is already in the graph does nothing. */
+    public void add(ObjectId newCommit, long timestamp, ObjectId... parents){
+        byte[] uid = newCommit.toBytes();
+        if (find(uid, 0) != NONE){ return; }
+        if (size == parent1.length){ grow(); }
+        int v = size;
+        System.arraycopy(uid, 0, uids, v * UID_BYTES, UID_BYTES);
+        parent1[v] = parents.length > 0 ? label(parents[0]) : NONE;
+        parent2[v] = parents.length > 1 ? label(parents[1]) : NONE;
+        generation[v] = 1 + Math.max(parent1[v] == NONE ? 0 : generation[parent1[v]],
+                parent2[v] == NONE ? 0 : generation[parent2[v]]);
+        timestamps[v] = timestamp;
+        insert(v);
+        if (byUid != null){ insertSorted(v); }
+        size += 1;
+        if (file == null){ return; }
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")){
+            out.seek(HEADER + (long) v * RECORD);
+            ByteBuffer record = ByteBuffer.allocate(RECORD);
+            record.put(uids, v * UID_BYTES, UID_BYTES).putInt(parent1[v]).putInt(parent2[v])
+                    .putInt(generation[v]).putLong(timestamps[v]);
+            out.write(record.array());
+            out.seek(8); // the record is complete before it is counted
+            out.writeInt(size);
+        } catch (IOException excp){
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.sync(file);
     }
+
+    /** Doubles the capacity of the arrays. */
+    private void grow(){
+        int capacity = Math.max(16, parent1.length * 2);
+        uids = Arrays.copyOf(uids, capacity * UID_BYTES);
+        parent1 = Arrays.copyOf(parent1, capacity);
+        parent2 = Arrays.copyOf(parent2, capacity);
+        generation = Arrays.copyOf(generation, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        if (byUid != null){ byUid = Arrays.copyOf(byUid, capacity); }
+        table = new int[Integer.highestOneBit(capacity) * 4];
+        for (int v = 0; v < size; v += 1){
+            insert(v);
+        }
+    }
+
+    /** Returns the slot of TABLE where probing for the raw UID at OFFSET in
+     *  BYTES starts. SHA-1 bits are uniform, so its first bytes will do. */
+    private int slot(byte[] bytes, int offset){
+        return firstInt(bytes, offset) & (table.length - 1);
+    }
+
+    /** Returns the first four bytes at OFFSET in BYTES, big-endian. */
+    private static int firstInt(byte[] bytes, int offset){
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+                | (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+    }
+
+    /** Enters the commit labelled V, whose UID is already in UIDS, in TABLE. */
+    private void insert(int v){
+        int i = slot(uids, v * UID_BYTES);
+        while (table[i] != 0){
+            i = (i + 1) & (table.length - 1);
+        }
+        table[i] = v + 1;
+    }
+
+    /** Returns the label of the commit whose raw UID is at OFFSET in BYTES,
+     *  or NONE if it is not in the graph. */
+    private int find(byte[] bytes, int offset){
+        for (int i = slot(bytes, offset); table[i] != 0; i = (i + 1) & (table.length - 1)){
+            int v = table[i] - 1;
+            if (Arrays.equals(uids, v * UID_BYTES, (v + 1) * UID_BYTES,
+                    bytes, offset, offset + UID_BYTES)){
+                return v;
+            }
+        }
+        return NONE;
+    }
+
+    /** Compares the UID of the commit labelled V with the raw UID at
+     *  OFFSET in BYTES, as unsigned bytes. */
+    private int compare(int v, byte[] bytes, int offset){
+        return Arrays.compareUnsigned(uids, v * UID_BYTES, (v + 1) * UID_BYTES,
+                bytes, offset, offset + UID_BYTES);
+    }
+
+    /** Sorts the labels by UID into BYUID and fills FANOUT, unless done. The
+     *  labels are sorted as longs holding the first four bytes of their UID
+     *  above the label, and the few that tie are then put in order by an
+     *  insertion sort over the whole UIDs. */
+    private void sortByUid(){
+        if (byUid != null){ return; }
+        long[] keys = new long[size];
+        for (int v = 0; v < size; v += 1){
+            keys[v] = ((long) firstInt(uids, v * UID_BYTES) << 32 | v) ^ Long.MIN_VALUE; // unsigned order
+        }
+        Arrays.sort(keys);
+        byUid = new int[parent1.length];
+        for (int i = 0; i < size; i += 1){
+            int v = (int) keys[i], j = i;
+            for (; j > 0 && compare(byUid[j - 1], uids, v * UID_BYTES) > 0; j -= 1){
+                byUid[j] = byUid[j - 1];
+            }
+            byUid[j] = v;
+        }
+        fanout = new int[257];
+        for (int v = 0; v < size; v += 1){
+            fanout[(uids[v * UID_BYTES] & 0xff) + 1] += 1;
+        }
+        for (int b = 1; b <= 256; b += 1){
+            fanout[b] += fanout[b - 1];
+        }
+    }
+
+    /** Returns the position in BYUID of the first label whose UID is not
+     *  below the raw UID KEY. */
+    private int lowerBound(byte[] key){
+        int b = key[0] & 0xff;
+        int lo = fanout[b], hi = fanout[b + 1];
+        while (lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if (compare(byUid[mid], key, 0) < 0){ lo = mid + 1; } else { hi = mid; }
+        }
+        return lo;
+    }
+
+    /** Enters the new commit labelled V, which is not counted in SIZE yet,
+     *  in BYUID and FANOUT. */
+    private void insertSorted(int v){
+        byte[] key = Arrays.copyOfRange(uids, v * UID_BYTES, (v + 1) * UID_BYTES);
+        int pos = lowerBound(key);
+        System.arraycopy(byUid, pos, byUid, pos + 1, size - pos);
+        byUid[pos] = v;
+        for (int b = (key[0] & 0xff) + 1; b <= 256; b += 1){
+            fanout[b] += 1;
+        }
+    }
+
+    /** Returns the UIDs of the commits that start with PREFIX, at most LIMIT
+     *  of them, in order. PREFIX is lower-case hex of any length. */
+    List<ObjectId> withPrefix(String prefix, int limit){
+        List<ObjectId> ids = new ArrayList<>();
+        if (prefix.isEmpty() || prefix.length() > UID_LENGTH || !prefix.matches("[0-9a-f]+")){
+            return ids;
+        }
+        sortByUid();
+        byte[] low = hexToBytes(prefix + "0".repeat(UID_LENGTH - prefix.length()));
+        for (int i = lowerBound(low); i < size && ids.size() < limit; i += 1){
+            if (!bytesToHex(uids, byUid[i] * UID_BYTES, UID_BYTES).startsWith(prefix)){ break; }
+            ids.add(id(byUid[i]));
+        }
+        return ids;
+    }
+
+    /** Returns the number of commits. */
     public int V(){
-        return labels.size();
-    }
-    /** get ShortestPathTree rooted with initial commit */
-    public String getSplitPointID(String id1, String id2){
-        BreadthFirstPath generateTree = new BreadthFirstPath(this, 0);
-        int[] paths = generateTree.getPath();
-        String path1 = getOnePath(paths, labels.get(id1));
-        String path2 = getOnePath(paths, labels.get(id2));
-        int minLength = Math.min(path1.length(), path2.length());
-        for(int i = 0; i < minLength; i++){
-            if (path1.charAt(i) != path2.charAt(i)) {
-                return getIdUsingLabels(i - 1);
+        return size;
+    }
+
+    /** Returns the label of commit ID, or NONE if it is not in the graph. */
+    int label(ObjectId id){
+        return find(id.toBytes(), 0);
+    }
+
+    /** Returns the commit UID labelled V. */
+    ObjectId id(int v){
+        return ObjectId.of(uids, v * UID_BYTES);
+    }
+
+    /** Returns the generation number of the commit labelled V. */
+    int generation(int v){
+        return generation[v];
+    }
+
+    /** Returns the commit time of the commit labelled V. */
+    long timestamp(int v){
+        return timestamps[v];
+    }
+
+    /** Returns the label of the first parent of the commit labelled V, or
+     *  NONE for the initial commit. */
+    int firstParent(int v){
+        return parent1[v];
+    }
+
+    /** Returns the labels ordered by decreasing commit time, then by
+     *  decreasing label, so that a commit comes before its parents. When the
+     *  span of the times allows, labels are sorted as longs holding the time
+     *  above the label, so that no object is made per commit. */
+    int[] newestFirst(){
+        int bits = 32 - Integer.numberOfLeadingZeros(size);
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        for (int v = 0; v < size; v += 1){
+            min = Math.min(min, timestamps[v]);
+            max = Math.max(max, timestamps[v]);
+        }
+        int[] order = new int[size];
+        if (size > 0 && max - min >= 0 && max - min < 1L << (63 - bits)){
+            long[] keys = new long[size];
+            for (int v = 0; v < size; v += 1){
+                keys[v] = (timestamps[v] - min) << bits | v;
+            }
+            Arrays.sort(keys);
+            for (int i = 0; i < size; i += 1){
+                order[size - 1 - i] = (int) (keys[i] & ((1L << bits) - 1));
             }
+        }else {
+            Integer[] labels = new Integer[size];
+            for (int v = 0; v < size; v += 1){ labels[v] = v; }
+            Arrays.sort(labels, (v, w) -> timestamps[v] != timestamps[w]
+                    ? Long.compare(timestamps[w], timestamps[v]) : Integer.compare(w, v));
+            for (int i = 0; i < size; i += 1){ order[i] = labels[i]; }
         }
-        return getIdUsingLabels(path1.charAt(minLength - 1));
+        return order;
     }
-    private String getIdUsingLabels(int label){
-        for (Map.Entry<String, Integer> entry : labels.entrySet()){
-            if (label == entry.getValue()){
-                return entry.getKey();
+
+    /** Returns true if commit ANCESTOR is reachable from commit ID by
+     *  following parents (every commit is its own ancestor). Only commits
+     *  whose generation is above ANCESTOR's are explored. */
+    public boolean isAncestor(ObjectId ancestor, ObjectId id){
+        return isAncestor(label(ancestor), label(id));
+    }
+
+    /** Returns true if the commit labelled TARGET is reachable from the
+     *  commit labelled START by following parents. */
+    private boolean isAncestor(int target, int start){
+        int floor = generation[target];
+        BitSet marked = new BitSet(size);
+        int[] fringe = new int[16];
+        int top = 0;
+        fringe[top++] = start;
+        marked.set(start);
+        while (top > 0){
+            int v = fringe[--top];
+            if (v == target){ return true; }
+            if (top + 2 > fringe.length){ fringe = Arrays.copyOf(fringe, fringe.length * 2); }
+            for (int w = parent1[v], i = 0; i < 2; w = parent2[v], i += 1){
+                if (w != NONE && !marked.get(w) && generation[w] >= floor){
+                    marked.set(w);
+                    fringe[top++] = w;
+                }
             }
         }
-        return null;
-    }
-
-    private String getOnePath(int[] paths, int v){
-        String path = "";
-        while (v != 0){
-            path = v + path;
-            v = paths[v];
-        }
-        return 0 + path;
-    }
-    private static class BreadthFirstPath {
-        private boolean[] marked;
-        private int[] edgeTo;
-        public BreadthFirstPath(Graph G, int s){
-            int initialSize = G.V();
-            marked = new boolean[initialSize];
-            edgeTo = new int[initialSize];
-            bfs(G, s);
-        }
-        public int[] getPath(){ return edgeTo;}
-        private void bfs(Graph G, int s){
-            Queue<Integer> fringe = new LinkedList<>();
-            fringe.offer(s);
-            marked[s] = true;
-            while (!fringe.isEmpty()) {
-                int v = fringe.poll();
-                for (int w : G.adj(v)) {
-                    if (!marked[w]) {
-                        fringe.offer(w);
-                        marked[w] = true;
-                        edgeTo[w] = v;
-                    }
+        return false;
+    }
+
+    /** Flags of the merge-base walk: reached from the first and from the
+     *  second commit, known not to be a best merge base, and found to be a
+     *  common ancestor. */
+    private static final int SIDE1 = 1, SIDE2 = 2, STALE = 4, RESULT = 8;
+
+    /** Returns the best common ancestors of commits ID1 and ID2: those that
+     *  are not ancestors of any other common ancestor. There are several
+     *  only after criss-cross merges. They are ordered by decreasing
+     *  generation, then by decreasing timestamp.
+     *  Commits are visited from both sides in that same order, each carrying
+     *  the sides it was reached from. Since all descendants of a commit have
+     *  larger generations, a commit's flags are final when it is visited.
+     *  A commit reached from both sides is a candidate, and everything
+     *  below it is marked STALE; the walk ends when only stale commits are
+     *  left, so it never goes further down than the oldest candidate.
+     *  Candidates that are ancestors of other candidates are then dropped. */
+    public List<ObjectId> mergeBases(ObjectId id1, ObjectId id2){
+        int s1 = label(id1), s2 = label(id2);
+        if (s1 == s2){ return List.of(id1); }
+        Comparator<Integer> newestFirst = (v, w) -> generation[v] != generation[w]
+                ? Integer.compare(generation[w], generation[v])
+                : timestamps[v] != timestamps[w] ? Long.compare(timestamps[w], timestamps[v])
+                : Integer.compare(w, v);
+        byte[] marks = new byte[size];
+        PriorityQueue<Integer> fringe = new PriorityQueue<>(newestFirst);
+        marks[s1] = SIDE1;
+        marks[s2] = SIDE2;
+        fringe.add(s1);
+        fringe.add(s2);
+        int live = 2; // queued commits that are not STALE
+        List<Integer> candidates = new ArrayList<>();
+        while (live > 0){
+            int v = fringe.poll();
+            int flags = marks[v] & (SIDE1 | SIDE2 | STALE);
+            if ((flags & STALE) == 0){ live -= 1; }
+            if ((flags & (SIDE1 | SIDE2)) == (SIDE1 | SIDE2)){
+                if ((marks[v] & RESULT) == 0){
+                    marks[v] |= RESULT;
+                    candidates.add(v);
                 }
+                flags |= STALE;
             }
+            live += paint(parent1[v], flags, marks, fringe);
+            live += paint(parent2[v], flags, marks, fringe);
+        }
+        List<Integer> bases = new ArrayList<>();
+        for (int c : candidates){
+            boolean redundant = false;
+            for (int other : candidates){
+                if (other != c && isAncestor(c, other)){ redundant = true; break; }
+            }
+            if (!redundant){ bases.add(c); }
+        }
+        bases.sort(newestFirst);
+        List<ObjectId> result = new ArrayList<>();
+        for (int v : bases){
+            result.add(id(v));
         }
+        return result;
+    }
+
+    /** Adds FLAGS to the marks of the parent W of a commit visited by
+     *  mergeBases, queueing it in FRINGE if it was unmarked, and returns the
+     *  change in the number of queued commits that are not STALE. */
+    private static int paint(int w, int flags, byte[] marks, PriorityQueue<Integer> fringe){
+        if (w == NONE){ return 0; }
+        int old = marks[w];
+        if ((old & flags) == flags){ return 0; }
+        marks[w] |= flags;
+        if (old == 0){ // every marked commit is queued, and not yet visited
+            fringe.add(w);
+            return (flags & STALE) == 0 ? 1 : 0;
+        }
+        return (old & STALE) == 0 && (flags & STALE) != 0 ? -1 : 0;
+    }
+
+    /** Returns the split point of commits ID1 and ID2: their best common
+     *  ancestor, or after criss-cross merges the newest of them. */
+    public ObjectId getSplitPointID(ObjectId id1, ObjectId id2){
+        List<ObjectId> bases = mergeBases(id1, id2);
+        return bases.isEmpty() ? null : bases.get(0);
     }
 }
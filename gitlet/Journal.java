@@ -0,0 +1,236 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** Makes the state files of .gitlet (HEAD, the branches and the staging
+ *  area) change together, so that a crash never leaves a branch moved
+ *  with its staged files still staged, or the like. A command stages its
+ *  writes and deletions here instead of making them, and commit() makes
+ *  them as one transaction:
+ *  1. the objects and other append-only files written meanwhile, which the
+ *     new state may refer to, are synced;
+ *  2. the staged changes are written to JOURNAL as
+ *         "GJNL" version count (op path length contents)* crc32
+ *     and synced, which is the commit point;
+ *  3. each file is replaced through a temporary file and an atomic move,
+ *     the new files are synced and JOURNAL is deleted.
+ *  begin(), run before every command, replays a complete journal left by a
+ *  command that died after its commit point and drops a torn one, whose
+ *  command never reached it. Replaying is idempotent. A transaction of a
+ *  single change needs no journal, since the move alone is atomic.
+ *  Syncs are batched: each file once, concurrently, then each directory
+ *  once, rather than after every write. -Dgitlet.fsync=false skips them.
+ *
+ *  @author Xinpeng WU
+ */
+class Journal {
+    /** The journal of the transaction being made, if any. */
+    static final File JOURNAL = join(GITLET_DIR, "journal");
+    /** Magic number and format version of the journal. */
+    private static final int MAGIC = 0x474a4e4c; // "GJNL"
+    private static final int VERSION = 1;
+    /** Whether files are synced to the disk. */
+    static final boolean FSYNC = !"false".equals(System.getProperty("gitlet.fsync"));
+
+    /** The changes staged by the current command, in order; null contents
+     *  delete the file. */
+    private static final Map<File, byte[]> staged = new LinkedHashMap<>();
+    /** Files written directly by the current command, to sync before the
+     *  commit point. */
+    private static final Set<File> unsynced = new LinkedHashSet<>();
+
+    /** Starts a command: forgets whatever a failed command staged, and
+     *  finishes the transaction of a command interrupted after its commit
+     *  point. */
+    static synchronized void begin(){
+        staged.clear();
+        unsynced.clear();
+        if (!JOURNAL.exists()){ return; }
+        Map<File, byte[]> changes = read();
+        if (changes != null){ apply(changes); }
+        JOURNAL.delete();
+    }
+
+    /** Stages writing CONTENTS to FILE, a file in GITLET_DIR. */
+    static synchronized void write(File file, byte[] contents){
+        stage(file, contents);
+    }
+
+    /** Stages writing CONTENTS to FILE, a file in GITLET_DIR, as UTF-8. */
+    static void write(File file, String contents){
+        write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Stages deleting FILE, a file in GITLET_DIR, if it exists. */
+    static synchronized void delete(File file){
+        stage(file, null);
+    }
+
+    /** Records that FILE was written outside the journal, so that it is
+     *  on the disk before any state that may refer to it. */
+    static synchronized void sync(File file){
+        if (FSYNC){ unsynced.add(file); }
+    }
+
+    /** Syncs FILE at once, for a file that must be on the disk before it is
+     *  moved into place. */
+    static void syncNow(File file){
+        if (FSYNC){ force(file, true); }
+    }
+
+    /** Makes the changes staged so far as one transaction. */
+    static synchronized void commit(){
+        syncAll(unsynced);
+        unsynced.clear();
+        if (staged.isEmpty()){ return; }
+        Map<File, byte[]> changes = new LinkedHashMap<>(staged);
+        staged.clear();
+        if (changes.size() == 1){
+            apply(changes);
+            return;
+        }
+        try {
+            Files.write(JOURNAL.toPath(), encode(changes));
+        } catch (IOException excp){
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        syncAll(List.of(JOURNAL));
+        apply(changes);
+        JOURNAL.delete(); // replaying it would change nothing, so it needs no sync
+    }
+
+    /** Puts FILE and CONTENTS in staged, last change last. */
+    private static void stage(File file, byte[] contents){
+        if (!file.toPath().startsWith(GITLET_DIR.toPath())){
+            throw new IllegalArgumentException("not in .gitlet: " + file);
+        }
+        staged.remove(file);
+        staged.put(file, contents);
+    }
+
+    /** Makes CHANGES. Replaced files are first written to temporary files in
+     *  GITLET_DIR, where they are never taken for branches or staged files. */
+    private static void apply(Map<File, byte[]> changes){
+        Map<File, File> moves = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<File, byte[]> change : changes.entrySet()){
+                if (change.getValue() == null){ continue; }
+                File tmp = File.createTempFile("tmp-state", null, GITLET_DIR);
+                Files.write(tmp.toPath(), change.getValue());
+                moves.put(tmp, change.getKey());
+            }
+            syncFiles(moves.keySet());
+            Set<File> dirs = new LinkedHashSet<>();
+            for (Map.Entry<File, byte[]> change : changes.entrySet()){
+                File file = change.getKey();
+                if (change.getValue() == null){ Files.deleteIfExists(file.toPath()); }
+                dirs.add(file.getParentFile());
+            }
+            for (Map.Entry<File, File> move : moves.entrySet()){
+                Files.move(move.getKey().toPath(), move.getValue().toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            syncDirectories(dirs);
+        } catch (IOException excp){
+            moves.keySet().forEach(File::delete);
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the journal of CHANGES. */
+    private static byte[] encode(Map<File, byte[]> changes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(changes.size());
+        for (Map.Entry<File, byte[]> change : changes.entrySet()){
+            byte[] contents = change.getValue();
+            out.writeByte(contents == null ? 'D' : 'W');
+            byte[] path = GITLET_DIR.toPath().relativize(change.getKey().toPath()).toString()
+                    .getBytes(StandardCharsets.UTF_8);
+            out.writeShort(path.length);
+            out.write(path);
+            out.writeInt(contents == null ? 0 : contents.length);
+            if (contents != null){ out.write(contents); }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        return bytes.toByteArray();
+    }
+
+    /** Returns the changes in JOURNAL, or null if it was not completely
+     *  written. */
+    private static Map<File, byte[]> read(){
+        ByteBuffer in = ByteBuffer.wrap(readContents(JOURNAL));
+        if (in.remaining() < 16 || in.getInt(0) != MAGIC){ return null; }
+        CRC32 crc = new CRC32();
+        crc.update(in.array(), 0, in.limit() - 4);
+        if ((int) crc.getValue() != in.getInt(in.limit() - 4)){ return null; }
+        if (in.getInt(4) != VERSION){
+            throw new IllegalArgumentException("unknown journal format");
+        }
+        in.position(8);
+        Map<File, byte[]> changes = new LinkedHashMap<>();
+        for (int count = in.getInt(); count > 0; count -= 1){
+            byte op = in.get();
+            byte[] path = new byte[Short.toUnsignedInt(in.getShort())];
+            in.get(path);
+            byte[] contents = new byte[in.getInt()];
+            in.get(contents);
+            changes.put(join(GITLET_DIR, new String(path, StandardCharsets.UTF_8)),
+                    op == 'D' ? null : contents);
+        }
+        return changes;
+    }
+
+    /** Syncs FILES and the directories holding them. */
+    private static void syncAll(Collection<File> files){
+        Set<File> dirs = new LinkedHashSet<>();
+        for (File file : files){ dirs.add(file.getParentFile()); }
+        syncFiles(files);
+        syncDirectories(dirs);
+    }
+
+    /** Syncs the contents of FILES, concurrently. */
+    private static void syncFiles(Collection<File> files){
+        if (!FSYNC){ return; }
+        WorkerPool.forEach(files, file -> force(file, true));
+    }
+
+    /** Syncs the entries of DIRS, so that files created, moved or deleted in
+     *  them stay that way. */
+    private static void syncDirectories(Collection<File> dirs){
+        if (!FSYNC){ return; }
+        for (File dir : dirs){ force(dir, false); }
+    }
+
+    /** Syncs FILE, a directory unless REGULAR. A file deleted since it was
+     *  written needs no sync, and not every platform can sync a directory,
+     *  so those failures are ignored. */
+    private static void force(File file, boolean regular){
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+            channel.force(true);
+        } catch (NoSuchFileException excp){
+            return;
+        } catch (IOException excp){
+            if (regular){ throw new IllegalArgumentException(excp.getMessage()); }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/** A line-by-line three-way merge of the contents of a file, in the manner
+ *  of diff3. Both sides are diffed against the base (the version at the
+ *  split point) with Diff. Hunks of the two sides whose base ranges overlap
+ *  or touch are grouped; a group changed on one side only, or changed the
+ *  same way on both, is taken as is, and any other group is a conflict,
+ *  written as
+ *      <<<<<<< HEAD
+ *      lines of the current side
+ *      =======
+ *      lines of the given side
+ *      >>>>>>>
+ *  Everything else comes from the base. Lines are compared as bytes, each
+ *  with its terminating newline, and interned to ints so that the diff only
+ *  handles arrays of ints. A conflict spanning whole files gives exactly
+ *  the whole-file markers merge has always written.
+ *
+ *  @author Xinpeng WU
+ */
+class LineMerge {
+    /** Conflict markers. */
+    private static final byte[] OURS = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] THEIRS = ">>>>>>>".getBytes(StandardCharsets.UTF_8);
+
+    /** The merged contents. */
+    final byte[] contents;
+    /** The number of conflicting regions in CONTENTS. */
+    final int conflicts;
+
+    /** Gives ids to lines so that equal lines, in any version, get equal
+     *  ids. Ids are kept in an open-addressing table keyed on a hash of the
+     *  line's bytes, and each id remembers where its first line lies. Each
+     *  slot holds the hash next to the id, so that a probe rarely needs more
+     *  than one memory access. */
+    private static class Interner {
+        private byte[][] owners = new byte[64][];
+        private int[] froms = new int[64], tos = new int[64];
+        private int size;
+        private long[] table = new long[128]; // hash << 32 | id + 1, or 0 for an empty slot
+
+        /** Returns the id of the line BYTES[from, to). */
+        int intern(byte[] bytes, int from, int to){
+            int hash = 0;
+            for (int i = from; i < to; i += 1){
+                hash = 31 * hash + bytes[i];
+            }
+            hash ^= hash >>> 16; // mixed, since lines often differ in a few bytes only
+            hash *= 0x85ebca6b;
+            hash ^= hash >>> 13;
+            hash *= 0xc2b2ae35;
+            hash ^= hash >>> 16;
+            for (int i = hash & (table.length - 1); ; i = (i + 1) & (table.length - 1)){
+                if (table[i] == 0){
+                    table[i] = (long) hash << 32 | add(bytes, from, to) + 1;
+                    if (2 * size > table.length){ rehash(); }
+                    return size - 1;
+                }
+                int id = (int) table[i] - 1;
+                if ((int) (table[i] >>> 32) == hash
+                        && Arrays.equals(owners[id], froms[id], tos[id], bytes, from, to)){
+                    return id;
+                }
+            }
+        }
+
+        /** Records a new id for the line BYTES[from, to) and returns it. */
+        private int add(byte[] bytes, int from, int to){
+            if (size == froms.length){
+                owners = Arrays.copyOf(owners, size * 2);
+                froms = Arrays.copyOf(froms, size * 2);
+                tos = Arrays.copyOf(tos, size * 2);
+            }
+            owners[size] = bytes;
+            froms[size] = from;
+            tos[size] = to;
+            size += 1;
+            return size - 1;
+        }
+
+        /** Doubles the table. */
+        private void rehash(){
+            long[] old = table;
+            table = new long[old.length * 2];
+            for (long slot : old){
+                if (slot == 0){ continue; }
+                int i = (int) (slot >>> 32) & (table.length - 1);
+                while (table[i] != 0){ i = (i + 1) & (table.length - 1); }
+                table[i] = slot;
+            }
+        }
+    }
+
+    /** The lines of one version of the file: LINES are their interned ids and
+     *  line i is BYTES[starts[i], starts[i + 1]). */
+    private static class Version {
+        final byte[] bytes;
+        final int[] starts;
+        final int[] lines;
+        Version(byte[] bytes, Interner ids){
+            this.bytes = bytes;
+            int count = 0;
+            for (int i = 0; i < bytes.length; i += 1){
+                if (bytes[i] == '\n' || i == bytes.length - 1){ count += 1; }
+            }
+            starts = new int[count + 1];
+            lines = new int[count];
+            for (int i = 0, line = 0; i < bytes.length; i += 1){
+                if (bytes[i] == '\n' || i == bytes.length - 1){
+                    starts[line + 1] = i + 1;
+                    lines[line] = ids.intern(bytes, starts[line], i + 1);
+                    line += 1;
+                }
+            }
+        }
+        /** Writes lines [from, to) to OUT. */
+        void write(ByteArrayOutputStream out, int from, int to){
+            out.write(bytes, starts[from], starts[to] - starts[from]);
+        }
+        /** Returns true if lines [from, to) equal lines [oFrom, oTo) of OTHER. */
+        boolean same(int from, int to, Version other, int oFrom, int oTo){
+            return Arrays.equals(lines, from, to, other.lines, oFrom, oTo);
+        }
+    }
+
+    /** Merges CURRENT and GIVEN, two versions of a file derived from BASE. */
+    LineMerge(byte[] base, byte[] current, byte[] given){
+        Interner ids = new Interner();
+        Version b = new Version(base, ids), c = new Version(current, ids), g = new Version(given, ids);
+        List<int[]> ch = Diff.hunks(b.lines, c.lines), gh = Diff.hunks(b.lines, g.lines);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(current.length, given.length));
+        int conflicts = 0;
+        int pos = 0; // base lines before pos are written
+        int ci = 0, gi = 0; // next hunk of each side
+        int cShift = 0, gShift = 0; // (side line) - (base line) outside of hunks, before pos
+        while (ci < ch.size() || gi < gh.size()){
+            // a group starts with the earliest hunk and takes in every hunk that touches it
+            int lo = Math.min(ci < ch.size() ? ch.get(ci)[0] : Integer.MAX_VALUE,
+                    gi < gh.size() ? gh.get(gi)[0] : Integer.MAX_VALUE);
+            int hi = lo;
+            int cFirst = ci, gFirst = gi;
+            while (true){
+                if (ci < ch.size() && ch.get(ci)[0] <= hi){
+                    hi = Math.max(hi, ch.get(ci)[1]);
+                    ci += 1;
+                }else if (gi < gh.size() && gh.get(gi)[0] <= hi){
+                    hi = Math.max(hi, gh.get(gi)[1]);
+                    gi += 1;
+                }else {
+                    break;
+                }
+            }
+            b.write(out, pos, lo);
+            int cLo = lo + cShift, gLo = lo + gShift;
+            cShift += shift(ch, cFirst, ci);
+            gShift += shift(gh, gFirst, gi);
+            int cHi = hi + cShift, gHi = hi + gShift;
+            if (gFirst == gi || c.same(cLo, cHi, g, gLo, gHi)){
+                c.write(out, cLo, cHi);
+            }else if (cFirst == ci){
+                g.write(out, gLo, gHi);
+            }else {
+                conflicts += 1;
+                out.write(OURS, 0, OURS.length);
+                c.write(out, cLo, cHi);
+                out.write(SEPARATOR, 0, SEPARATOR.length);
+                g.write(out, gLo, gHi);
+                out.write(THEIRS, 0, THEIRS.length);
+                if (hi < b.lines.length){ out.write('\n'); } // nothing follows a group at the end
+            }
+            pos = hi;
+        }
+        b.write(out, pos, b.lines.length);
+        this.contents = out.toByteArray();
+        this.conflicts = conflicts;
+    }
+
+    /** Returns how many lines HUNKS[from, to) add to their side overall. */
+    private static int shift(List<int[]> hunks, int from, int to){
+        int shift = 0;
+        for (int[] hunk : hunks.subList(from, to)){
+            shift += (hunk[3] - hunk[2]) - (hunk[1] - hunk[0]);
+        }
+        return shift;
+    }
+}
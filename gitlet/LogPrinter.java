@@ -0,0 +1,131 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Locale;
+
+import static gitlet.Utils.*;
+
+/** Prints the entries of log and global-log through one large buffer, and
+ *  tells the walks that feed it which commits to print and when to stop.
+ *  The options, after the command name, are
+ *      -n COUNT       print at most COUNT commits
+ *      --since DATE   print only commits made at or after DATE
+ *      --until DATE   print only commits made at or before DATE
+ *  where DATE is yyyy-MM-dd or yyyy-MM-ddTHH:mm[:ss], in local time. Commit
+ *  times come from the graph, so commits are only read once they are to be
+ *  printed. A parent is not always older than its child (clocks differ), so
+ *  log only filters by date and stops once -n is used up; global-log walks
+ *  commits sorted by time, so it also stops at the first one before --since.
+ *
+ *  @author Xinpeng WU
+ */
+class LogPrinter {
+    /** The size of the output buffer, in chars. */
+    private static final int BUFFER = 1 << 16;
+
+    /** The number of commits still to be printed. */
+    private long remaining = Long.MAX_VALUE;
+    /** The bounds of the commit times printed, in milliseconds. */
+    private long since = Long.MIN_VALUE;
+    private long until = Long.MAX_VALUE;
+    private final SimpleDateFormat dates = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.US);
+    private final Writer out = new BufferedWriter(new OutputStreamWriter(System.out), BUFFER);
+
+    /** Returns a printer for the options in ARGS, which start with the
+     *  command name. */
+    static LogPrinter parse(String[] args){
+        LogPrinter printer = new LogPrinter();
+        for (int i = 1; i < args.length; i += 2){
+            if (i + 1 == args.length){ throw error("Incorrect operands."); }
+            String value = args[i + 1];
+            switch (args[i]){
+                case "-n" -> printer.remaining = count(value);
+                case "--since" -> printer.since = time(value);
+                case "--until" -> printer.until = time(value);
+                default -> throw error("Incorrect operands.");
+            }
+        }
+        return printer;
+    }
+
+    /** Returns the count VALUE of -n. */
+    private static long count(String value){
+        try {
+            long count = Long.parseLong(value);
+            if (count >= 0){ return count; }
+        } catch (NumberFormatException excp){
+            // reported below
+        }
+        throw error("Incorrect operands.");
+    }
+
+    /** Returns the date VALUE of --since or --until in milliseconds. */
+    private static long time(String value){
+        try {
+            LocalDateTime time = value.contains("T") ? LocalDateTime.parse(value)
+                    : LocalDate.parse(value).atStartOfDay();
+            return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException excp){
+            throw error("Incorrect operands.");
+        }
+    }
+
+    /** Returns false once enough commits were printed. */
+    boolean more(){
+        return remaining > 0;
+    }
+
+    /** Returns true if a commit made at TIMESTAMP is before --since. */
+    boolean older(long timestamp){
+        return timestamp < since;
+    }
+
+    /** Returns true if a commit made at TIMESTAMP is to be printed. */
+    boolean shows(long timestamp){
+        return since <= timestamp && timestamp <= until;
+    }
+
+    /** Prints the entry of commit ID, which is COMMIT. */
+    void print(ObjectId id, Commit commit){
+        try {
+            out.write("===\ncommit ");
+            out.write(id.name());
+            out.write('\n');
+            List<ObjectId> parents = commit.getParents();
+            if (parents.size() >= 2){
+                out.write("Merge: ");
+                for (ObjectId parent : parents){
+                    out.write(parent.name(), 0, 7);
+                    out.write("  ");
+                }
+                out.write('\n');
+            }
+            out.write("Date: ");
+            out.write(dates.format(commit.getTimestamp()));
+            out.write('\n');
+            out.write(commit.getMessage());
+            out.write("\n\n");
+        } catch (IOException excp){
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        remaining -= 1;
+    }
+
+    /** Writes out what is still buffered. */
+    void flush(){
+        try {
+            out.flush();
+        } catch (IOException excp){
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package gitlet;
 
 import static gitlet.Repository.*;
+import static gitlet.Utils.error;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author Xinpeng WU
@@ -9,16 +10,36 @@ public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
+     *  The command is handed to the daemon of this repository if one is
+     *  running, and run in this process otherwise.
      */
     public static void main(String[] args) {
+        if (Daemon.forward(args)) {
+            return;
+        }
+        try {
+            run(args);
+        } catch (GitletException excp) {
+            if (excp.getMessage() != null) {
+                System.out.println(excp.getMessage());
+            }
+        }
+    }
+
+    /** Runs the command ARGS, printing its output on System.out. Errors meant
+     *  for the user are thrown as GitletExceptions carrying their message.
+     *  The changes a command makes to the state of the repository are made
+     *  together when it finishes, or not at all if it fails. */
+    static void run(String[] args) {
         if (args.length == 0) {
-            System.out.println("Please enter a command.");
-            System.exit(0);
+            throw error("Please enter a command.");
         }
         String firstArg = args[0];
+        Journal.begin();
         if (firstArg.equals("init")){
             checkARGS(1, args.length);
             init();
+            Journal.commit();
             return;
         }
         checkDIR();
@@ -29,8 +50,7 @@ public class Main {
             }
             case "commit" -> {
                 if (args.length == 1){
-                    System.out.println("Please enter a commit message.");
-                    System.exit(0);
+                    throw error("Please enter a commit message.");
                 }
                 checkARGS(2, args.length);
                 commit(args[1]);
@@ -40,12 +60,10 @@ public class Main {
                 remove(args[1]);
             }
             case "log" -> {
-                checkARGS(1, args.length);
-                log();
+                log(args);
             }
             case "global-log" -> {
-                checkARGS(1, args.length);
-                globalLog();
+                globalLog(args);
             }
             case "find" -> {
                 checkARGS(2, args.length);
@@ -82,10 +100,27 @@ public class Main {
                 checkARGS(2, args.length);
                 merge(args[1]);
             }
+            case "repack" ->{
+                checkARGS(1, args.length);
+                repack();
+            }
+            case "migrate" ->{
+                checkARGS(1, args.length);
+                migrate();
+            }
+            case "daemon" ->{
+                if (args.length == 2 && args[1].equals("stop")){
+                    throw error("No daemon is running.");
+                }
+                checkARGS(1, args.length);
+                Daemon.serve();
+            }
             default -> {
-                System.out.println("No command with that name exists.");
-                System.exit(0);
+                throw error("No command with that name exists.");
             }
         }
+        Journal.commit();
+        StatIndex.save();
+        ObjectCache.report();
     }
 }
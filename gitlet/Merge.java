@@ -0,0 +1,89 @@
+package gitlet;
+
+import java.util.*;
+
+/** A three-way merge of the files of two commits, the current and the
+ *  given one, against their split point. Each file falls into one of the
+ *  eight cases of merge, which come down to:
+ *      current == given            -- nothing to do
+ *      given == split              -- keep the current version
+ *      current == split            -- take the given version (or untrack it)
+ *      otherwise                   -- conflict
+ *  where an absent file counts as a version of its own. The same rules hold
+ *  for whole buckets of the three root Trees, compared by UID, so only the
+ *  buckets that changed on both sides are read in full; those are merged in
+ *  a single pass over their sorted entries. The cost of a merge thus follows
+ *  the size of the change rather than the number of tracked files.
+ *
+ *  @author Xinpeng WU
+ */
+class Merge {
+    /** The files of the current commit to change, mapped to the blob UID they
+     *  take from the given commit, or to null if they are to be untracked. */
+    final SortedMap<String, ObjectId> changes = new TreeMap<>();
+    /** The conflicting files, mapped to their blob UIDs at the split point,
+     *  in the current and in the given commit, any of which may be null. */
+    final SortedMap<String, ObjectId[]> conflicts = new TreeMap<>();
+
+    /** Merges the root trees CURRENT and GIVEN against their split point
+     *  SPLIT. */
+    Merge(ObjectId split, ObjectId current, ObjectId given){
+        SortedMap<String, ObjectId> splitBuckets = Tree.read(split);
+        SortedMap<String, ObjectId> currentBuckets = Tree.read(current);
+        SortedMap<String, ObjectId> givenBuckets = Tree.read(given);
+        SortedSet<String> buckets = new TreeSet<>(currentBuckets.keySet());
+        buckets.addAll(givenBuckets.keySet());
+        for (String bucket : buckets){
+            ObjectId s = splitBuckets.get(bucket);
+            ObjectId c = currentBuckets.get(bucket);
+            ObjectId g = givenBuckets.get(bucket);
+            if (Objects.equals(c, g) || Objects.equals(g, s)){ continue; }
+            merge(read(s), read(c), read(g));
+        }
+    }
+
+    /** Returns the files of the bucket tree ID, which is empty if ID is
+     *  null. */
+    private static SortedMap<String, ObjectId> read(ObjectId id){
+        return id == null ? Collections.emptySortedMap() : Tree.read(id);
+    }
+
+    /** Merges the files of one bucket, SPLIT, CURRENT and GIVEN, walking
+     *  the three sorted lists together. */
+    private void merge(SortedMap<String, ObjectId> split, SortedMap<String, ObjectId> current,
+                       SortedMap<String, ObjectId> given){
+        Iterator<Map.Entry<String, ObjectId>> si = split.entrySet().iterator();
+        Iterator<Map.Entry<String, ObjectId>> ci = current.entrySet().iterator();
+        Iterator<Map.Entry<String, ObjectId>> gi = given.entrySet().iterator();
+        Map.Entry<String, ObjectId> se = next(si), ce = next(ci), ge = next(gi);
+        while (ce != null || ge != null){
+            String name = min(se, min(ce, ge));
+            ObjectId s = null, c = null, g = null;
+            if (se != null && se.getKey().equals(name)){ s = se.getValue(); se = next(si); }
+            if (ce != null && ce.getKey().equals(name)){ c = ce.getValue(); ce = next(ci); }
+            if (ge != null && ge.getKey().equals(name)){ g = ge.getValue(); ge = next(gi); }
+            if (Objects.equals(c, g) || Objects.equals(g, s)){ continue; }
+            if (Objects.equals(c, s)){
+                changes.put(name, g);
+            }else {
+                conflicts.put(name, new ObjectId[] {s, c, g});
+            }
+        }
+    }
+
+    /** Returns the next entry of IT, or null at its end. */
+    private static Map.Entry<String, ObjectId> next(Iterator<Map.Entry<String, ObjectId>> it){
+        return it.hasNext() ? it.next() : null;
+    }
+
+    /** Returns the smaller of NAME and the key of E, ignoring nulls. */
+    private static String min(Map.Entry<String, ObjectId> e, String name){
+        if (e == null){ return name; }
+        return name == null || e.getKey().compareTo(name) < 0 ? e.getKey() : name;
+    }
+
+    /** Returns the smaller key of A and B, ignoring nulls. */
+    private static String min(Map.Entry<String, ObjectId> a, Map.Entry<String, ObjectId> b){
+        return min(a, b == null ? null : b.getKey());
+    }
+}
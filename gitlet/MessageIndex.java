@@ -0,0 +1,161 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** An index of commits by message, so that find reads only the commits
+ *  whose message matches instead of every commit. It is kept in MESSAGES as
+ *      "GMSG" version count sorted (key uid)*
+ *  where key is the first 8 bytes of the SHA-1 of the UTF-8 message and uid
+ *  is raw. The first SORTED records are sorted by key, then uid, and are
+ *  binary searched; the others were appended by later commits and are
+ *  scanned. Once there are TAIL_LIMIT of those, they are merged into the
+ *  sorted ones and the file is rewritten, so each commit costs a small
+ *  append and, now and then, a share of a rewrite. Keys may collide, so the
+ *  UIDs found are only candidates, to be checked against their commits.
+ *  The index is built from every stored commit whenever it is missing, as
+ *  in repositories of older versions or after migrate.
+ *
+ *  @author Xinpeng WU
+ */
+class MessageIndex {
+    /** Magic number and format version of the index file. */
+    private static final int MAGIC = 0x474d5347; // "GMSG"
+    private static final int VERSION = 1;
+    /** Sizes of the file header and of each record. */
+    private static final int HEADER = 16;
+    private static final int RECORD = 8 + UID_BYTES;
+    /** The most records kept out of order. */
+    static final int TAIL_LIMIT = 4096;
+
+    /** Writes an empty index. */
+    static void create(){
+        write(ByteBuffer.allocate(0), 0);
+    }
+
+    /** Records that the commit ID has MESSAGE. Does nothing if there is no
+     *  index yet, since a missing index is built in full when needed. */
+    static void add(ObjectId id, String message){
+        if (!MESSAGES.exists()){ return; }
+        ByteBuffer record = ByteBuffer.allocate(RECORD);
+        record.putLong(key(message)).put(id.toBytes()).flip();
+        int sorted;
+        try (RandomAccessFile file = new RandomAccessFile(MESSAGES, "rw")){
+            file.seek(8);
+            int count = file.readInt();
+            sorted = file.readInt();
+            if (count - sorted + 1 < TAIL_LIMIT){
+                file.seek(HEADER + (long) count * RECORD);
+                file.write(record.array());
+                file.seek(8); // the record is complete before it is counted
+                file.writeInt(count + 1);
+                Journal.sync(MESSAGES);
+                return;
+            }
+        } catch (IOException excp){
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ByteBuffer records = read();
+        ByteBuffer all = ByteBuffer.allocate(records.remaining() + RECORD);
+        all.put(records).put(record).flip();
+        write(all, sorted);
+    }
+
+    /** Returns the UIDs of the commits that may have MESSAGE, in order. */
+    static SortedSet<ObjectId> find(String message){
+        if (!MESSAGES.exists()){ rebuild(); }
+        long key = key(message);
+        SortedSet<ObjectId> ids = new TreeSet<>();
+        try (FileChannel channel = FileChannel.open(MESSAGES.toPath(), StandardOpenOption.READ)){
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int count = in.getInt(8), sorted = in.getInt(12);
+            int lo = 0, hi = sorted; // the first record with a key >= KEY
+            while (lo < hi){
+                int mid = (lo + hi) >>> 1;
+                if (in.getLong(HEADER + mid * RECORD) < key){ lo = mid + 1; } else { hi = mid; }
+            }
+            for (int r = lo; r < sorted && in.getLong(HEADER + r * RECORD) == key; r += 1){
+                ids.add(uid(in, r));
+            }
+            for (int r = sorted; r < count; r += 1){
+                if (in.getLong(HEADER + r * RECORD) == key){ ids.add(uid(in, r)); }
+            }
+        } catch (IOException excp){
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return ids;
+    }
+
+    /** Builds the index of every stored commit. */
+    private static void rebuild(){
+        SortedSet<String> ids = ObjectStore.commitIDs();
+        ByteBuffer records = ByteBuffer.allocate(ids.size() * RECORD);
+        for (String id : ids){
+            records.putLong(key(Commit.decode(ObjectStore.readCommit(id)).getMessage())).put(hexToBytes(id));
+        }
+        write(records.flip(), 0);
+    }
+
+    /** Returns the records of the index, the sorted ones first. */
+    private static ByteBuffer read(){
+        ByteBuffer in = ByteBuffer.wrap(readContents(MESSAGES));
+        if (in.getInt(0) != MAGIC || in.getInt(4) != VERSION){
+            throw new IllegalArgumentException("unknown message index format");
+        }
+        return in.position(HEADER).limit(HEADER + in.getInt(8) * RECORD).slice();
+    }
+
+    /** Writes RECORDS, of which the first SORTED are sorted, as the index,
+     *  sorting the rest first. The file is replaced atomically. */
+    private static void write(ByteBuffer records, int sorted){
+        int count = records.remaining() / RECORD;
+        Integer[] order = new Integer[count];
+        for (int r = 0; r < count; r += 1){ order[r] = r; }
+        Arrays.sort(order, sorted, count, (a, b) -> compare(records, a, records, b));
+        ByteBuffer out = ByteBuffer.allocate(HEADER + count * RECORD);
+        out.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(count);
+        int i = 0, j = sorted; // merge the two sorted runs
+        while (i < sorted || j < count){
+            int r = j == count || (i < sorted && compare(records, i, records, order[j]) <= 0)
+                    ? i++ : order[j++];
+            out.put(records.slice(r * RECORD, RECORD));
+        }
+        try {
+            File tmp = File.createTempFile("tmp-messages", null, GITLET_DIR);
+            Files.write(tmp.toPath(), out.array());
+            Files.move(tmp.toPath(), MESSAGES.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Journal.sync(MESSAGES);
+        } catch (IOException excp){
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Compares record A of RA with record B of RB by key, then UID. */
+    private static int compare(ByteBuffer ra, int a, ByteBuffer rb, int b){
+        int c = Long.compare(ra.getLong(a * RECORD), rb.getLong(b * RECORD));
+        return c != 0 ? c : ra.slice(a * RECORD + 8, UID_BYTES).compareTo(rb.slice(b * RECORD + 8, UID_BYTES));
+    }
+
+    /** Returns the UID of record R of the index file IN. */
+    private static ObjectId uid(ByteBuffer in, int r){
+        byte[] uid = new byte[UID_BYTES];
+        in.get(HEADER + r * RECORD + 8, uid);
+        return ObjectId.of(uid);
+    }
+
+    /** Returns the key of MESSAGE. */
+    private static long key(String message){
+        return ByteBuffer.wrap(sha1Bytes(message)).getLong();
+    }
+}
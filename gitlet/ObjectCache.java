@@ -0,0 +1,105 @@
+package gitlet;
+
+import java.util.*;
+import java.util.function.ToLongFunction;
+
+/** A bounded cache of objects by UID, of key type K (hex Strings or
+ *  ObjectIds). Objects are named by the hash of their contents and never
+ *  change, so cached entries never go stale and the cache can be kept for
+ *  as long as the process runs. Each entry is weighed in bytes when it is
+ *  looked up or put; once the total goes over the limit, the least recently
+ *  used entries are evicted. Objects heavier than a quarter of the limit
+ *  are not cached at all. Hits and misses are counted and, with
+ *  -Dgitlet.timings=true, reported on stderr by report().
+ *  All methods may be called from several threads.
+ *
+ *  @author Xinpeng WU
+ */
+class ObjectCache<K, V> {
+    /** Every cache, for report(). */
+    private static final List<ObjectCache<?, ?>> CACHES = new ArrayList<>();
+
+    /** The name of this cache in reports. */
+    private final String name;
+    /** The soft limit on the total weight, in bytes. */
+    private final long limit;
+    /** Returns the weight of a value, in bytes. */
+    private final ToLongFunction<V> weigher;
+    /** The entries, least recently used first. */
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(64, 0.75f, true);
+    /** The weight of each entry when it was last used. */
+    private final Map<K, Long> weights = new HashMap<>();
+    /** The total of WEIGHTS. */
+    private long weight;
+    private long hits;
+    private long misses;
+
+    /** A cache called NAME holding about LIMIT bytes, as told by WEIGHER. */
+    ObjectCache(String name, long limit, ToLongFunction<V> weigher){
+        this.name = name;
+        this.limit = limit;
+        this.weigher = weigher;
+        synchronized (CACHES){ CACHES.add(this); }
+    }
+
+    /** Returns the value cached for ID, or null if there is none. */
+    synchronized V get(K id){
+        V value = entries.get(id);
+        if (value == null){
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        reweigh(id, value); // values such as commits may have grown since
+        return value;
+    }
+
+    /** Caches VALUE for ID and returns it. */
+    synchronized V put(K id, V value){
+        if (entries.put(id, value) == null){ weights.put(id, 0L); }
+        reweigh(id, value);
+        return value;
+    }
+
+    /** Updates the weight of the entry ID, holding VALUE, and evicts the
+     *  least recently used entries while the total is over the limit. */
+    private void reweigh(K id, V value){
+        long w = weigher.applyAsLong(value);
+        weight += w - weights.put(id, w);
+        if (w > limit / 4){
+            entries.remove(id);
+            weight -= weights.remove(id);
+        }
+        Iterator<Map.Entry<K, V>> eldest = entries.entrySet().iterator();
+        while (weight > limit && eldest.hasNext()){
+            weight -= weights.remove(eldest.next().getKey());
+            eldest.remove();
+        }
+    }
+
+    /** Drops the entry ID, if any, as when the object is deleted. */
+    synchronized void remove(K id){
+        if (entries.remove(id) != null){ weight -= weights.remove(id); }
+    }
+
+    /** Empties the cache. */
+    synchronized void clear(){
+        entries.clear();
+        weights.clear();
+        weight = 0;
+    }
+
+    /** Reports the hits, misses and weight of every cache on stderr, if
+     *  gitlet.timings is set. */
+    static void report(){
+        if (!Utils.TIMINGS){ return; }
+        synchronized (CACHES){
+            for (ObjectCache<?, ?> cache : CACHES){
+                synchronized (cache){
+                    System.err.printf("%-12s %6d hits %6d misses %10d bytes%n",
+                            cache.name, cache.hits, cache.misses, cache.weight);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package gitlet;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+import static gitlet.Utils.*;
+
+/** The UID of a stored object: the UID_BYTES raw bytes of a SHA-1 hash,
+ *  held in two longs and an int. An ObjectId takes 32 bytes of heap where
+ *  its 40-digit hexadecimal String takes about 80, and it is compared and
+ *  hashed without looking at characters. ObjectIds are ordered as their
+ *  hexadecimal numerals are. The object store and the files of .gitlet
+ *  still name objects by hex, through parse and name.
+ *
+ *  @author Xinpeng WU
+ */
+final class ObjectId implements Comparable<ObjectId> {
+    /** Views of byte arrays as big-endian longs and ints. */
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INTS = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    /** Bytes 0-7, 8-15 and 16-19 of the UID. */
+    private final long hi;
+    private final long mid;
+    private final int lo;
+
+    private ObjectId(long hi, long mid, int lo){
+        this.hi = hi;
+        this.mid = mid;
+        this.lo = lo;
+    }
+
+    /** Returns the ObjectId whose raw bytes start at OFFSET in BYTES. */
+    static ObjectId of(byte[] bytes, int offset){
+        return new ObjectId((long) LONGS.get(bytes, offset), (long) LONGS.get(bytes, offset + 8),
+                (int) INTS.get(bytes, offset + 16));
+    }
+
+    /** Returns the ObjectId of the UID_BYTES raw bytes RAW. */
+    static ObjectId of(byte[] raw){
+        if (raw.length != UID_BYTES){ throw new IllegalArgumentException("not a raw UID"); }
+        return of(raw, 0);
+    }
+
+    /** Returns the ObjectId of the hexadecimal UID ID. */
+    static ObjectId parse(String id){
+        if (id.length() != UID_LENGTH){ throw new IllegalArgumentException("not a hexadecimal UID"); }
+        return of(hexToBytes(id), 0);
+    }
+
+    /** Returns the hexadecimal UID of ID, or null if ID is null. */
+    static String nameOrNull(ObjectId id){
+        return id == null ? null : id.name();
+    }
+
+    /** Writes the raw bytes of this UID to BYTES at OFFSET. */
+    void copyTo(byte[] bytes, int offset){
+        LONGS.set(bytes, offset, hi);
+        LONGS.set(bytes, offset + 8, mid);
+        INTS.set(bytes, offset + 16, lo);
+    }
+
+    /** Returns the raw bytes of this UID. */
+    byte[] toBytes(){
+        byte[] bytes = new byte[UID_BYTES];
+        copyTo(bytes, 0);
+        return bytes;
+    }
+
+    /** Returns the hexadecimal numeral of this UID. */
+    String name(){
+        return bytesToHex(toBytes(), 0, UID_BYTES);
+    }
+
+    @Override
+    public String toString(){
+        return name();
+    }
+
+    @Override
+    public boolean equals(Object obj){
+        return obj instanceof ObjectId other && hi == other.hi && mid == other.mid && lo == other.lo;
+    }
+
+    @Override
+    public int hashCode(){
+        return (int) (hi >>> 32); // SHA-1 bits are uniform
+    }
+
+    @Override
+    public int compareTo(ObjectId other){
+        int c = Long.compareUnsigned(hi, other.hi);
+        if (c == 0){ c = Long.compareUnsigned(mid, other.mid); }
+        return c != 0 ? c : Integer.compareUnsigned(lo, other.lo);
+    }
+}
@@ -0,0 +1,157 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/** Reads regions of object files without routing them through the heap where
+ *  possible. Regions of packs and large loose objects are served from
+ *  memory-mapped windows; a bounded number of windows is kept mapped and the
+ *  least recently used ones are dropped first. Copies into working files go
+ *  through FileChannel.transferTo, so the kernel moves the bytes directly.
+ *
+ *  @author Xinpeng WU
+ */
+class ObjectReader {
+    /** Loose objects at least this long are mapped rather than read. */
+    static final long MAP_THRESHOLD = 1 << 20;
+    /** Windows are aligned to and at least this long (unless the file is shorter). */
+    static final long WINDOW_SIZE = 32L << 20;
+    /** The total number of mapped bytes kept in the window cache. */
+    static final long WINDOW_CACHE_LIMIT = 256L << 20;
+
+    /** A mapped region [start, start + buffer.capacity()) of a file. */
+    private static class Window {
+        final long start;
+        final MappedByteBuffer buffer;
+        Window(long start, MappedByteBuffer buffer){
+            this.start = start;
+            this.buffer = buffer;
+        }
+        boolean covers(long offset, long length){
+            return offset >= start && offset + length <= start + buffer.capacity();
+        }
+    }
+
+    /** The mapped windows, keyed by file path and window start, in LRU order. */
+    private static final LinkedHashMap<String, Window> windows =
+            new LinkedHashMap<>(16, 0.75f, true);
+    /** The number of bytes currently mapped by WINDOWS. */
+    private static long mappedBytes;
+
+    /** Returns a read-only view of LENGTH bytes of FILE starting at OFFSET,
+     *  backed by a mapped window of FILE. */
+    static synchronized ByteBuffer read(File file, long offset, long length){
+        if (length > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("object too large to buffer");
+        }
+        Window window = window(file, offset, length);
+        ByteBuffer view = window.buffer.duplicate();
+        view.position((int) (offset - window.start));
+        view.limit((int) (offset - window.start + length));
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /** Returns LENGTH bytes of FILE starting at OFFSET as an array. */
+    static byte[] readBytes(File file, long offset, long length){
+        if (length > Integer.MAX_VALUE){
+            throw error("Object in %s too large to read whole: %d bytes.", file.getName(), length);
+        }
+        byte[] result = new byte[(int) length];
+        read(file, offset, length).get(result);
+        return result;
+    }
+
+    /** Returns the window of FILE covering [OFFSET, OFFSET + LENGTH), mapping
+     *  a new one and evicting old ones as needed. */
+    private static Window window(File file, long offset, long length){
+        long start = offset - offset % WINDOW_SIZE;
+        String key = file.getPath() + "@" + start;
+        Window window = windows.get(key);
+        if (window != null && window.covers(offset, length)){
+            return window;
+        }
+        if (window != null){
+            windows.remove(key);
+            mappedBytes -= window.buffer.capacity();
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+            long end = Math.min(channel.size(), Math.max(start + WINDOW_SIZE, offset + length));
+            if (end - start > Integer.MAX_VALUE){
+                start = offset;
+                end = offset + length;
+                key = file.getPath() + "@" + start;
+            }
+            window = new Window(start, channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+        } catch (IOException excp){
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        windows.put(key, window);
+        mappedBytes += window.buffer.capacity();
+        Iterator<Window> lru = windows.values().iterator();
+        while (mappedBytes > WINDOW_CACHE_LIMIT && lru.hasNext()){
+            Window victim = lru.next();
+            if (victim == window){ break; }
+            mappedBytes -= victim.buffer.capacity();
+            lru.remove();
+        }
+        return window;
+    }
+
+    /** Drops every mapped window of FILE, which is about to be deleted. */
+    static synchronized void forget(File file){
+        String prefix = file.getPath() + "@";
+        Iterator<Map.Entry<String, Window>> it = windows.entrySet().iterator();
+        while (it.hasNext()){
+            Map.Entry<String, Window> entry = it.next();
+            if (entry.getKey().startsWith(prefix)){
+                mappedBytes -= entry.getValue().buffer.capacity();
+                it.remove();
+            }
+        }
+    }
+
+    /** Replaces the contents of DEST with LENGTH bytes of SOURCE starting at
+     *  OFFSET using FileChannel.transferTo. A SOURCE that ends early is
+     *  corrupt, since transferTo then moves nothing more. */
+    static void transfer(File source, long offset, long length, File dest){
+        if (dest.isDirectory()){
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        try (FileChannel out = FileChannel.open(dest.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)){
+            transfer(source, offset, length, out);
+        } catch (IOException excp){
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes LENGTH bytes of SOURCE starting at OFFSET to OUT using
+     *  FileChannel.transferTo, which moves them in bounded chunks when OUT
+     *  is not a file. */
+    static void transfer(File source, long offset, long length, WritableByteChannel out){
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ)){
+            long position = offset;
+            long end = offset + length;
+            while (position < end){
+                long moved = in.transferTo(position, end - position, out);
+                if (moved <= 0){ throw error("Corrupted object file %s.", source.getName()); }
+                position += moved;
+            }
+        } catch (IOException excp){
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Replaces the contents of DEST with the whole of SOURCE. */
+    static void transfer(File source, File dest){
+        transfer(source, 0, source.length(), dest);
+    }
+}
@@ -0,0 +1,498 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** Content-addressed storage for blobs, trees and commits.
+ *  New objects are written loose, one file per object: a blob under
+ *  BLOBS/uid, a tree under TREES/uid[0..2]/uid[2..] and a commit under
+ *  COMMITS/uid[0..2]/uid[2..]. Loose objects
+ *  are deflated and carry a .z suffix unless gitlet.compress is false; the
+ *  UID is always the SHA-1 of the uncompressed contents, computed in the same
+ *  pass that compresses them. The repack command moves every loose object
+ *  into a single packfile under PACKS, where objects are kept uncompressed
+ *  so that checkouts can copy them straight out of the pack.
+ *  Readers look in loose storage first and fall back to the packs.
+ *  A blob written with a base (usually the previous version of the same
+ *  file) is stored as a delta, BLOBS/uid.delta, when that is much smaller:
+ *      baseUid depth delta
+ *  where baseUid is raw and depth is the length of the chain of deltas
+ *  down to a full blob, which is kept at most MAX_DELTA_DEPTH.
+ *  Objects read as a whole are kept in an ObjectCache per kind of object,
+ *  of CACHE_SIZE bytes for blobs, so that a process reading the same trees,
+ *  commits or blobs again, or resolving deltas against the same bases,
+ *  reads and inflates them once. Arrays handed out may thus be shared and
+ *  must not be modified.
+ *
+ *  @author Xinpeng WU
+ */
+class ObjectStore {
+    /** Object types recorded in packs. */
+    static final byte BLOB = 1;
+    static final byte COMMIT = 2;
+    static final byte DELTA = 3;
+    static final byte TREE = 4;
+
+    /** The longest chain of deltas a new delta may be based on. */
+    static final int MAX_DELTA_DEPTH = 16;
+    /** Blobs longer than this are always stored in full, and streamed. */
+    static final long MAX_DELTA_SIZE = 4L << 20;
+    /** Whether new loose objects are deflated. */
+    static final boolean COMPRESS = !"false".equals(System.getProperty("gitlet.compress"));
+    /** The suffixes of loose delta blobs and of deflated loose objects. */
+    private static final String DELTA_SUFFIX = ".delta";
+    private static final String DEFLATED_SUFFIX = ".z";
+    /** The size of the buffers objects are streamed through. */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** The number of bytes of objects kept in memory, in MB by gitlet.cache. */
+    static final long CACHE_SIZE = Long.getLong("gitlet.cache", 64) << 20;
+    /** Recently read objects, by their directory. */
+    private static final ObjectCache<String, byte[]> BLOB_CACHE = new ObjectCache<>("blobs", CACHE_SIZE, b -> b.length);
+    private static final Map<File, ObjectCache<String, byte[]>> CACHES = Map.of(
+            COMMITS, new ObjectCache<>("commits", CACHE_SIZE / 4, b -> b.length),
+            TREES, new ObjectCache<>("trees", CACHE_SIZE / 4, b -> b.length));
+
+    /** The packs of this repository, loaded on first use. */
+    private static List<PackFile> packs;
+
+    /** Returns the packs of this repository. */
+    private static synchronized List<PackFile> packs(){
+        if (packs == null){
+            packs = new ArrayList<>();
+            File[] indices = PACKS.listFiles((dir, name) -> name.endsWith(".idx"));
+            if (indices != null){
+                Arrays.sort(indices);
+                for (File index : indices){
+                    packs.add(new PackFile(index));
+                }
+            }
+        }
+        return packs;
+    }
+
+    /** Drops the list of packs, which is read again from PACKS when next
+     *  needed. */
+    static synchronized void reloadPacks(){
+        packs = null;
+    }
+
+    /* LOOSE OBJECT FILES */
+
+    /** Returns the existing loose file named NAME in DIR, plain or deflated,
+     *  or null if there is none. */
+    private static File looseFile(File dir, String name){
+        File plain = join(dir, name);
+        if (plain.exists()){ return plain; }
+        File deflated = join(dir, name + DEFLATED_SUFFIX);
+        return deflated.exists() ? deflated : null;
+    }
+
+    /** Returns the uncompressed contents of the loose object file FILE. */
+    private static byte[] readLoose(File file){
+        if (!file.getName().endsWith(DEFLATED_SUFFIX)){ return readContents(file); }
+        try (InputStream in = inflate(file)){
+            return in.readAllBytes();
+        } catch (IOException excp){
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream of the uncompressed contents of the loose object
+     *  file FILE. */
+    private static InputStream openLoose(File file) throws IOException {
+        return file.getName().endsWith(DEFLATED_SUFFIX) ? inflate(file)
+                : new BufferedInputStream(Files.newInputStream(file.toPath()), BUFFER_SIZE);
+    }
+
+    /** Returns a stream of the uncompressed contents of the deflated FILE. */
+    private static InputStream inflate(File file) throws IOException {
+        return new InflaterInputStream(Files.newInputStream(file.toPath()),
+                new Inflater(), BUFFER_SIZE);
+    }
+
+    /** Returns the name of loose object NAME as stored from now on. */
+    private static String looseName(String name){
+        return COMPRESS ? name + DEFLATED_SUFFIX : name;
+    }
+
+    /** Copies IN to a new temporary file, deflating it if COMPRESS, and
+     *  returns the file together with the SHA-1 UID of the uncompressed
+     *  bytes. Hashing and compression happen in one pass over IN. */
+    private static Map.Entry<File, String> writeTemporary(InputStream in){
+        return writeTemporary(in, COMPRESS);
+    }
+
+    /** Like writeTemporary(IN), deflating only if DEFLATE. */
+    private static Map.Entry<File, String> writeTemporary(InputStream in, boolean deflate){
+        MessageDigest md = sha1Digest();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            File tmp = File.createTempFile("tmp-object", null, GITLET_DIR);
+            OutputStream file = Files.newOutputStream(tmp.toPath());
+            OutputStream sink = deflate ? new DeflaterOutputStream(file, deflater, BUFFER_SIZE)
+                    : new BufferedOutputStream(file, BUFFER_SIZE);
+            try (OutputStream out = new DigestOutputStream(sink, md)){
+                in.transferTo(out);
+            }
+            return Map.entry(tmp, bytesToHex(md.digest(), 0, UID_BYTES));
+        } catch (IOException excp){
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Moves the temporary file TMP to DEST, or drops it if DEST's object is
+     *  already stored, as told by STORED. */
+    private static void install(File tmp, File dest, boolean stored){
+        if (stored){
+            tmp.delete();
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            Journal.sync(dest);
+        } catch (IOException excp){
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* BLOBS */
+
+    /** Returns true if the blob ID is stored. */
+    static boolean containsBlob(String id){
+        if (looseFile(BLOBS, id) != null || join(BLOBS, id + DELTA_SUFFIX).exists()){ return true; }
+        for (PackFile pack : packs()){
+            if (pack.find(id) >= 0){ return true; }
+        }
+        return false;
+    }
+
+    /** Stores CONTENTS as a blob unless it is already stored and returns its
+     *  UID. If BASEID is not null, the blob may be stored as a delta against
+     *  BASEID. */
+    static String putBlob(byte[] contents, String baseID){
+        if (baseID != null){
+            String id = sha1(contents);
+            if (containsBlob(id)){ return id; }
+            byte[] delta = baseID.equals(id) ? null : deltaAgainst(baseID, contents);
+            if (delta != null){ // stored raw, and moved into place whole like full blobs
+                install(writeTemporary(new ByteArrayInputStream(delta), false).getKey(),
+                        join(BLOBS, id + DELTA_SUFFIX), false);
+                return id;
+            }
+        }
+        return putBlob(new ByteArrayInputStream(contents));
+    }
+
+    /** Stores the contents of SOURCE as a blob unless it is already stored
+     *  and returns its UID. If BASEID is not null, the blob may be stored as a
+     *  delta against BASEID. Files too large for deltas are streamed. */
+    static String putBlob(File source, String baseID){
+        if (baseID != null && source.length() <= MAX_DELTA_SIZE){
+            return putBlob(readContents(source), baseID);
+        }
+        try (InputStream in = Files.newInputStream(source.toPath())){
+            return putBlob(in);
+        } catch (IOException excp){
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stores the full contents of IN as a blob and returns its UID. */
+    private static String putBlob(InputStream in){
+        Map.Entry<File, String> written = writeTemporary(in);
+        String id = written.getValue();
+        install(written.getKey(), join(BLOBS, looseName(id)), containsBlob(id));
+        return id;
+    }
+
+    /** Returns the stored form of TARGET as a delta against the blob BASEID,
+     *  or null if the delta would not pay off. */
+    private static byte[] deltaAgainst(String baseID, byte[] target){
+        if (target.length > MAX_DELTA_SIZE || !containsBlob(baseID)){ return null; }
+        int depth = deltaDepth(baseID);
+        if (depth >= MAX_DELTA_DEPTH){ return null; }
+        byte[] base = readBlob(baseID);
+        if (base.length > MAX_DELTA_SIZE){ return null; }
+        byte[] delta = Delta.create(base, target);
+        if (UID_BYTES + 1 + delta.length > target.length / 2){ return null; }
+        byte[] stored = new byte[UID_BYTES + 1 + delta.length];
+        System.arraycopy(hexToBytes(baseID), 0, stored, 0, UID_BYTES);
+        stored[UID_BYTES] = (byte) (depth + 1);
+        System.arraycopy(delta, 0, stored, UID_BYTES + 1, delta.length);
+        return stored;
+    }
+
+    /** Returns the length of the delta chain of the stored blob ID, which is
+     *  0 for a full blob. */
+    private static int deltaDepth(String id){
+        File looseDelta = join(BLOBS, id + DELTA_SUFFIX);
+        if (looseDelta.exists()){ // only the header byte is read
+            try (RandomAccessFile in = new RandomAccessFile(looseDelta, "r")){
+                in.seek(UID_BYTES);
+                return in.readByte();
+            } catch (IOException excp){
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        for (PackFile pack : packs()){
+            int pos = pack.find(id);
+            if (pos >= 0 && pack.type(pos) == DELTA){ return pack.byteAt(pos, UID_BYTES); }
+        }
+        return 0;
+    }
+
+    /** Returns the blob whose stored delta form is STORED. */
+    private static byte[] resolveDelta(byte[] stored){
+        byte[] base = readBlob(bytesToHex(stored, 0, UID_BYTES));
+        return Delta.apply(base, stored, UID_BYTES + 1);
+    }
+
+    /** Returns the contents of the blob ID. */
+    static byte[] readBlob(String id){
+        byte[] contents = BLOB_CACHE.get(id);
+        return contents != null ? contents : BLOB_CACHE.put(id, loadBlob(id));
+    }
+
+    /** Reads the blob ID from the store. */
+    private static byte[] loadBlob(String id){
+        File loose = looseFile(BLOBS, id);
+        if (loose != null && loose.getName().equals(id) && loose.length() >= ObjectReader.MAP_THRESHOLD){
+            return ObjectReader.readBytes(loose, 0, loose.length());
+        }
+        if (loose != null){ return readLoose(loose); }
+        File looseDelta = join(BLOBS, id + DELTA_SUFFIX);
+        if (looseDelta.exists()){ return resolveDelta(readContents(looseDelta)); }
+        for (PackFile pack : packs()){
+            int pos = pack.find(id);
+            if (pos >= 0 && pack.type(pos) == DELTA){ return resolveDelta(pack.read(pos)); }
+            if (pos >= 0){ return pack.read(pos); }
+        }
+        throw error("Missing blob %s.", id);
+    }
+
+    /** Replaces the contents of DEST with the blob ID, copying full blobs
+     *  file to file without passing the contents through the heap. */
+    static void copyBlobTo(String id, File dest){
+        File loose = looseFile(BLOBS, id);
+        if (loose != null && loose.getName().equals(id)){
+            ObjectReader.transfer(loose, dest);
+            return;
+        }
+        if (loose != null){
+            try (InputStream in = inflate(loose);
+                 OutputStream out = Files.newOutputStream(dest.toPath())){
+                in.transferTo(out);
+            } catch (IOException excp){
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            return;
+        }
+        for (PackFile pack : packs()){
+            int pos = pack.find(id);
+            if (pos >= 0 && pack.type(pos) == BLOB){
+                pack.copyTo(pos, dest);
+                return;
+            }
+        }
+        writeContents(dest, readBlob(id)); // deltas are rebuilt on the heap
+    }
+
+    /* COMMITS AND TREES */
+
+    /** Stores CONTENTS as a loose object of DIR, in the prefix dir named by
+     *  the first two digits of its UID, unless it is already stored, and
+     *  returns its UID. */
+    private static String putPrefixed(File dir, byte type, byte[] contents){
+        String id = sha1(contents);
+        if (readPrefixed(dir, type, id) != null){ return id; }
+        CACHES.get(dir).put(id, contents);
+        Map.Entry<File, String> written = writeTemporary(new ByteArrayInputStream(contents));
+        File prefixDir = join(dir, id.substring(0, 2));
+        prefixDir.mkdirs();
+        install(written.getKey(), join(prefixDir, looseName(id.substring(2))),
+                looseFile(prefixDir, id.substring(2)) != null);
+        return id;
+    }
+
+    /** Returns the object ID of type TYPE, loose in DIR or packed, or null
+     *  if there is none. */
+    private static byte[] readPrefixed(File dir, byte type, String id){
+        ObjectCache<String, byte[]> cache = CACHES.get(dir);
+        byte[] contents = cache.get(id);
+        if (contents != null){ return contents; }
+        File loose = looseFile(join(dir, id.substring(0, 2)), id.substring(2));
+        if (loose != null){ return cache.put(id, readLoose(loose)); }
+        for (PackFile pack : packs()){
+            int pos = pack.find(id);
+            if (pos >= 0 && pack.type(pos) == type){ return cache.put(id, pack.read(pos)); }
+        }
+        return null;
+    }
+
+    /** Stores the encoded commit CONTENTS and returns its UID. */
+    static String putCommit(byte[] contents){
+        return putPrefixed(COMMITS, COMMIT, contents);
+    }
+
+    /** Returns the encoded commit ID, or null if there is none. */
+    static byte[] readCommit(String id){
+        return readPrefixed(COMMITS, COMMIT, id);
+    }
+
+    /** Stores the encoded tree CONTENTS and returns its UID. Trees that are
+     *  already stored, as most are, cost only hashing. */
+    static String putTree(byte[] contents){
+        return putPrefixed(TREES, TREE, contents);
+    }
+
+    /** Returns the encoded tree ID, or null if there is none. */
+    static byte[] readTree(String id){
+        return readPrefixed(TREES, TREE, id);
+    }
+
+    /** Returns the UIDs of the loose commits in the prefix dir PREFIX. */
+    private static List<String> looseCommitIDs(String prefix){
+        List<String> ids = new ArrayList<>();
+        for (String name : plainFilenamesIn(join(COMMITS, prefix))){
+            ids.add(prefix + name.substring(0, UID_LENGTH - 2));
+        }
+        return ids;
+    }
+
+    /** Returns the UIDs of all stored commits in lexicographic order. */
+    static SortedSet<String> commitIDs(){
+        SortedSet<String> ids = new TreeSet<>();
+        String[] prefixes = COMMITS.list();
+        if (prefixes != null){
+            for (String prefix : prefixes){
+                ids.addAll(looseCommitIDs(prefix));
+            }
+        }
+        for (PackFile pack : packs()){
+            for (int pos = 0; pos < pack.size(); pos += 1){
+                if (pack.type(pos) == COMMIT){ ids.add(pack.uid(pos)); }
+            }
+        }
+        return ids;
+    }
+
+    /** Deletes the commits IDS. Loose ones are simply removed; if any of
+     *  them is packed, everything is repacked without them. */
+    static void deleteCommits(Set<String> ids){
+        boolean packed = false;
+        for (String id : ids){
+            CACHES.get(COMMITS).remove(id);
+            File loose = looseFile(join(COMMITS, id.substring(0, 2)), id.substring(2));
+            if (loose != null){ restrictedDelete(loose); }
+            for (PackFile pack : packs()){
+                packed |= pack.find(id) >= 0;
+            }
+        }
+        if (packed){ repack(ids); }
+    }
+
+    /* REPACKING */
+
+    /** Returns true if any object is stored loose. */
+    private static boolean hasLooseObjects(){
+        if (!plainFilenamesIn(BLOBS).isEmpty()){ return true; }
+        for (File dir : new File[] {COMMITS, TREES}){
+            String[] prefixes = dir.list();
+            if (prefixes == null){ continue; }
+            for (String prefix : prefixes){
+                if (!plainFilenamesIn(join(dir, prefix)).isEmpty()){ return true; }
+            }
+        }
+        return false;
+    }
+
+    /** Moves every loose object and every existing pack into one new pack,
+     *  then deletes the loose objects and the old packs. */
+    static void repack(){
+        repack(Set.of());
+    }
+
+    /** Repacks like repack(), leaving out the objects DISCARD. */
+    private static void repack(Set<String> discard){
+        if (discard.isEmpty() && packs().size() <= 1 && !hasLooseObjects()){ return; } // packed already
+        PackFile.Writer writer = new PackFile.Writer(PACKS);
+        for (PackFile pack : packs()){
+            for (int pos = 0; pos < pack.size(); pos += 1){
+                if (discard.contains(pack.uid(pos))){ continue; }
+                writer.add(pack.uid(pos), pack, pos); // streamed, blobs may be huge
+            }
+        }
+        List<File> looseFiles = new ArrayList<>();
+        for (String name : plainFilenamesIn(BLOBS)){
+            File blob = join(BLOBS, name);
+            if (name.endsWith(DELTA_SUFFIX)){
+                writer.add(name.substring(0, UID_LENGTH), DELTA, readContents(blob));
+            }else {
+                try (InputStream in = openLoose(blob)){ // streamed, never whole on the heap
+                    writer.add(name.substring(0, UID_LENGTH), BLOB, in);
+                } catch (IOException excp){
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+            looseFiles.add(blob);
+        }
+        List<File> prefixDirs = new ArrayList<>();
+        for (File dir : new File[] {COMMITS, TREES}){
+            byte type = dir == COMMITS ? COMMIT : TREE;
+            String[] prefixes = dir.list();
+            if (prefixes == null){ continue; }
+            for (String prefix : prefixes){
+                for (String name : plainFilenamesIn(join(dir, prefix))){
+                    File object = join(dir, prefix, name);
+                    String id = prefix + name.substring(0, UID_LENGTH - 2);
+                    if (!discard.contains(id)){ writer.add(id, type, readLoose(object)); }
+                    looseFiles.add(object);
+                }
+                prefixDirs.add(join(dir, prefix));
+            }
+        }
+        List<PackFile> oldPacks = packs();
+        if (writer.isEmpty() && discard.isEmpty()){
+            writer.abort();
+            return;
+        }
+        PackFile newPack = null;
+        if (writer.isEmpty()){
+            writer.abort();
+        }else {
+            newPack = writer.finish();
+        }
+        Journal.commit(); // the new pack is on disk before anything is deleted
+        for (PackFile pack : oldPacks){
+            if (newPack == null || !pack.sameFileAs(newPack)){ pack.delete(); }
+        }
+        for (File loose : looseFiles){
+            restrictedDelete(loose);
+        }
+        for (File prefixDir : prefixDirs){
+            prefixDir.delete(); // only succeeds once empty
+        }
+        packs = null;
+    }
+}
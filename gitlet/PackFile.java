@@ -0,0 +1,336 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/** A read-only view of one packfile together with its offset index.
+ *  A pack is an append-only sequence of objects, each stored as a type byte,
+ *  the length of its contents as a long, and the contents themselves:
+ *      "PACK" version count (type length contents)*
+ *  Its index lists the UIDs of the packed objects as a sorted table of raw
+ *  SHA-1 values, preceded by a 256-entry fanout table in which entry b is the
+ *  number of UIDs whose first byte is at most b, and followed by the type and
+ *  pack offset of each object:
+ *      "PIDX" version fanout[256] uid[count] type[count] offset[count]
+ *  so that a lookup is a binary search over a single fanout bucket.
+ *
+ *  @author Xinpeng WU
+ */
+class PackFile {
+    /** Magic numbers and format version of packs and pack indices. */
+    static final int PACK_MAGIC = 0x5041434b; // "PACK"
+    static final int INDEX_MAGIC = 0x50494458; // "PIDX"
+    static final int VERSION = 1;
+
+    /** The pack file holding the object contents. */
+    private final File pack;
+    /** fanout[b] is the number of packed UIDs whose first byte is <= b. */
+    private final int[] fanout;
+    /** The sorted raw UIDs, UID_BYTES bytes each. */
+    private final byte[] uids;
+    /** The object type of each packed UID. */
+    private final byte[] types;
+    /** The offset within PACK of each packed UID's entry. */
+    private final long[] offsets;
+
+    /** Opens the pack described by the index file INDEX. */
+    PackFile(File index) {
+        String name = index.getName();
+        this.pack = join(index.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(index.toPath())))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != VERSION) {
+                throw error("Corrupted pack index %s.", name);
+            }
+            fanout = new int[256];
+            for (int b = 0; b < 256; b += 1) {
+                fanout[b] = in.readInt();
+            }
+            int count = fanout[255];
+            uids = new byte[count * UID_BYTES];
+            in.readFully(uids);
+            types = new byte[count];
+            in.readFully(types);
+            offsets = new long[count];
+            for (int i = 0; i < count; i += 1) {
+                offsets[i] = in.readLong();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return types.length;
+    }
+
+    /** Returns the position of the object whose UID is ID in this pack,
+     *  or -1 if it is not packed here. */
+    int find(String id) {
+        byte[] key = hexToBytes(id);
+        int lo = (key[0] & 0xff) == 0 ? 0 : fanout[(key[0] & 0xff) - 1];
+        int hi = fanout[key[0] & 0xff] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareUid(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the UID at POS with the (possibly shorter) raw KEY. */
+    private int compareUid(int pos, byte[] key) {
+        int base = pos * UID_BYTES;
+        for (int i = 0; i < key.length; i += 1) {
+            int cmp = (uids[base + i] & 0xff) - (key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the hexadecimal UID at POS. */
+    String uid(int pos) {
+        return bytesToHex(uids, pos * UID_BYTES, UID_BYTES);
+    }
+
+    /** Returns the object type at POS. */
+    byte type(int pos) {
+        return types[pos];
+    }
+
+    /** Returns the length of the contents of the object at POS. */
+    long length(int pos) {
+        return ObjectReader.read(pack, offsets[pos] + 1, 8).getLong();
+    }
+
+    /** Returns the contents of the object at POS. */
+    byte[] read(int pos) {
+        return ObjectReader.readBytes(pack, offsets[pos] + 9, length(pos));
+    }
+
+    /** Returns the byte at INDEX of the contents of the object at POS. */
+    byte byteAt(int pos, int index) {
+        return ObjectReader.read(pack, offsets[pos] + 9 + index, 1).get();
+    }
+
+    /** Replaces the contents of DEST with the contents of the object at POS
+     *  without copying them through the heap. */
+    void copyTo(int pos, File dest) {
+        ObjectReader.transfer(pack, offsets[pos] + 9, length(pos), dest);
+    }
+
+    /** Writes the contents of the object at POS to OUT without copying them
+     *  whole onto the heap. */
+    void copyTo(int pos, WritableByteChannel out) {
+        ObjectReader.transfer(pack, offsets[pos] + 9, length(pos), out);
+    }
+
+    /** Returns true if this pack and OTHER are backed by the same file. */
+    boolean sameFileAs(PackFile other) {
+        return pack.equals(other.pack);
+    }
+
+    /** Deletes this pack and its index. */
+    void delete() {
+        File index = join(pack.getParentFile(),
+                pack.getName().replace(".pack", ".idx"));
+        ObjectReader.forget(pack);
+        pack.delete();
+        index.delete();
+    }
+
+    /** Appends objects to a new pack and writes its index on finish. The
+     *  pack is named after the SHA-1 of its sorted UIDs. */
+    static class Writer {
+        /** The directory receiving the new pack. */
+        private final File dir;
+        /** The pack being written under a temporary name. */
+        private final File tmpPack;
+        private final DataOutputStream out;
+        /** Maps each UID written so far to its type and offset. */
+        private final TreeMap<String, long[]> written = new TreeMap<>();
+        /** Maps the offset of each length left blank by a streamed object to
+         *  the length, which finish fills in. */
+        private final Map<Long, Long> lengths = new HashMap<>();
+        /** The number of bytes written to the pack so far. */
+        private long position;
+
+        Writer(File dir) {
+            this.dir = dir;
+            dir.mkdir();
+            try {
+                tmpPack = Files.createTempFile(dir.toPath(), "pack-", ".tmp").toFile();
+                out = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(tmpPack.toPath()), 1 << 16));
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(0); // the count is recorded in the index
+                position = 12;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Returns true if an object with UID ID has been written. */
+        boolean contains(String id) {
+            return written.containsKey(id);
+        }
+
+        /** Returns true if no objects have been written. */
+        boolean isEmpty() {
+            return written.isEmpty();
+        }
+
+        /** Appends the object ID of type TYPE with CONTENTS to the pack. */
+        void add(String id, byte type, byte[] contents) {
+            if (written.containsKey(id)) {
+                return;
+            }
+            try {
+                written.put(id, new long[] {type, position});
+                out.writeByte(type);
+                out.writeLong(contents.length);
+                out.write(contents);
+                position += 1 + 8 + contents.length;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Appends the object ID of type TYPE whose contents are the rest of
+         *  IN, streamed through a bounded buffer. Its length is not known
+         *  until the end, so it is filled in by finish. */
+        void add(String id, byte type, InputStream in) {
+            if (written.containsKey(id)) {
+                return;
+            }
+            try {
+                written.put(id, new long[] {type, position});
+                out.writeByte(type);
+                out.writeLong(0);
+                long length = in.transferTo(out);
+                lengths.put(position + 1, length);
+                position += 1 + 8 + length;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Appends the object at POS of SOURCE, copying its contents without
+         *  holding them whole on the heap. */
+        void add(String id, PackFile source, int pos) {
+            if (written.containsKey(id)) {
+                return;
+            }
+            try {
+                long length = source.length(pos);
+                written.put(id, new long[] {source.type(pos), position});
+                out.writeByte(source.type(pos));
+                out.writeLong(length);
+                source.copyTo(pos, Channels.newChannel(out));
+                position += 1 + 8 + length;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Closes and discards the partially written pack. */
+        void abort() {
+            try {
+                out.close();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            tmpPack.delete();
+        }
+
+        /** Closes the pack, writes its index and returns the new pack. If a pack
+         *  of the same objects exists, it is kept and returned instead. */
+        PackFile finish() {
+            try {
+                out.close();
+                if (!lengths.isEmpty()) {
+                    try (FileChannel channel = FileChannel.open(tmpPack.toPath(),
+                            StandardOpenOption.WRITE)) {
+                        for (Map.Entry<Long, Long> length : lengths.entrySet()) {
+                            ByteBuffer bytes = ByteBuffer.allocate(8).putLong(0, length.getValue());
+                            channel.write(bytes, length.getKey());
+                        }
+                    }
+                }
+                int[] fanout = new int[256];
+                for (String id : written.keySet()) {
+                    fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+                }
+                for (int b = 1; b < 256; b += 1) {
+                    fanout[b] += fanout[b - 1];
+                }
+                String name = "pack-" + sha1(String.join("", written.keySet()));
+                File pack = join(dir, name + ".pack");
+                File index = join(dir, name + ".idx");
+                if (pack.exists() && index.exists()) {
+                    // the same objects are packed already, maybe laid out differently and
+                    // mapped: replacing that pack would pull it from under its readers
+                    tmpPack.delete();
+                    return new PackFile(index);
+                }
+                ObjectReader.forget(pack); // a pack without index, left by an interrupted repack
+                Journal.syncNow(tmpPack);
+                Files.move(tmpPack.toPath(), pack.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                File tmpIndex = Files.createTempFile(dir.toPath(), "pack-", ".tmp").toFile();
+                try (DataOutputStream idx = new DataOutputStream(
+                        new BufferedOutputStream(
+                                Files.newOutputStream(tmpIndex.toPath())))) {
+                    idx.writeInt(INDEX_MAGIC);
+                    idx.writeInt(VERSION);
+                    for (int count : fanout) {
+                        idx.writeInt(count);
+                    }
+                    for (String id : written.keySet()) {
+                        idx.write(hexToBytes(id));
+                    }
+                    for (long[] entry : written.values()) {
+                        idx.writeByte((int) entry[0]);
+                    }
+                    for (long[] entry : written.values()) {
+                        idx.writeLong(entry[1]);
+                    }
+                }
+                // packs are listed by their index, so it is published last, whole
+                Journal.syncNow(tmpIndex);
+                Files.move(tmpIndex.toPath(), index.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Journal.sync(index); // and its directory entry, before repack deletes anything
+                return new PackFile(index);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+}
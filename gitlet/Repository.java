@@ -2,7 +2,7 @@ package gitlet;
 
 import java.io.File;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import static gitlet.Utils.*;
@@ -35,6 +35,8 @@ public class Repository implements Serializable {
     public static final File REMOVEDFILES = join(GITLET_DIR, "removedFiles");
     /** The commits object dir. */
     public static final File COMMITS = join(GITLET_DIR, "commits");
+    /** The trees object dir, laid out like COMMITS. */
+    public static final File TREES = join(GITLET_DIR, "trees");
     /** The blobs dir. */
     public static final File BLOBS = join(GITLET_DIR, "blobs");
     /** The currently active pointer file. */
@@ -43,6 +45,17 @@ public class Repository implements Serializable {
     public static final File BRANCHES = join(GITLET_DIR, "branches");
     /** The Graph Object file. */
     public static final File COMMITSGRAPH = join(GITLET_DIR, "commitsGraph");
+    /** The packfiles dir. */
+    public static final File PACKS = join(GITLET_DIR, "packs");
+    /** The stat cache of working files. */
+    public static final File INDEX = join(GITLET_DIR, "index");
+    /** The index of commits by message. */
+    public static final File MESSAGES = join(GITLET_DIR, "messages");
+    /** Recently read commits, weighed roughly by the memory their loaded files take. */
+    private static final ObjectCache<ObjectId, Commit> COMMIT_CACHE = new ObjectCache<>("decoded", ObjectStore.CACHE_SIZE / 4,
+            c -> 256 + 128L * c.loadedFiles());
+    /** The commit graph, loaded on first use and kept until reloadGraph. */
+    private static Graph commitsGraph;
 
     /** Creates a new Gitlet version-control system in the current directory.
      *  This system will automatically start with one commit: a commit that contains no files
@@ -66,13 +79,14 @@ public class Repository implements Serializable {
         GITLET_DIR.mkdir();
         STAGING_AREA.mkdir();
         COMMITS.mkdir();
+        TREES.mkdir();
         BRANCHES.mkdir();
         BLOBS.mkdir();
-        writeContents(HEAD, "master");
+        Journal.write(HEAD, "master");
         Commit initial = new Commit ("initial commit");
-        storeNewCommit(initial);
-        Graph commitsGraph = new Graph(getHeadCommitID());
-        writeObject(COMMITSGRAPH, commitsGraph);
+        MessageIndex.create();
+        ObjectId initialID = storeNewCommit(initial, "master");
+        commitsGraph = Graph.create(COMMITSGRAPH, initialID, initial.getTimestamp().getTime());
     }
     /** Adds a copy of the file as it currently exists to the staging area
      * (see the description of the commit command). For this reason, adding
@@ -86,30 +100,29 @@ public class Repository implements Serializable {
      * file will no longer be staged for removal (see gitlet rm), if it was
      * at the time of the command. 
      * ATTENTION: Significant modification, add addedFiles object to record
-     * file name with its SHA1 ID. */
+     * file name with its SHA1 ID. The file is written straight into the object
+     * store, which is content-addressed and so idempotent, and addedFiles is
+     * all the staging area holds; commit then copies no contents at all. */
     public static void add (String source){
         File sourceFile = join(CWD, source);
         if (!sourceFile.isFile() || !sourceFile.exists()) {
             System.out.println("File does not exist.");
             return;
         }// failure cases
-        String sourceFileContents = readContentsAsString(sourceFile);
-        String sourceFileID = sha1(sourceFileContents);
-        String committedFileID = getHeadCommit().getBlobs().get(source);
+        ObjectId sourceFileID = StatIndex.hash(source); // rehashed only if its stat data changed
+        ObjectId committedFileID = getHeadCommit().getBlobID(source);
         Map<String, String> addedFiles = getAddedFiles();
         String stagedFileID = addedFiles.get(source);
-        File stagedFile = join(STAGING_AREA, source);
         if (sourceFileID.equals(committedFileID)){
             // using SHA1 to determine whether source is identical to current commit file
-            if (stagedFile.exists()){
+            if (stagedFileID != null){
                 addedFiles.remove(source);
-                restrictedDelete(stagedFile);
-                writeObject(ADDEDFILES, (Serializable) addedFiles);
+                Journal.delete(join(STAGING_AREA, source));
+                Journal.write(ADDEDFILES, serialize((Serializable) addedFiles));
             }
-        }else if (!sourceFileID.equals(stagedFileID)){
-            addedFiles.put(source, sourceFileID);
-            writeContents(stagedFile, sourceFileContents); //copy the file to specific file path
-            writeObject(ADDEDFILES, (Serializable) addedFiles);
+        }else if (!sourceFileID.name().equals(stagedFileID)){
+            addedFiles.put(source, ObjectStore.putBlob(sourceFile, ObjectId.nameOrNull(committedFileID)));
+            Journal.write(ADDEDFILES, serialize((Serializable) addedFiles));
         }
     }
     /** Saves a snapshot of tracked files in the current commit and staging area,
@@ -131,36 +144,32 @@ public class Repository implements Serializable {
         Map<String, String> addedFiles = getAddedFiles();
         SortedSet<String> removedFiles = getRemovedFiles();
         if (addedFiles.isEmpty() && removedFiles.isEmpty()){
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
+            throw error("No changes added to the commit.");
         }
         Commit headCommit = getHeadCommit();
         // read from my computer the HEAD commit object and the staging area
-        String parentCommitID = getHeadCommitID();
+        ObjectId parentCommitID = getHeadCommitID();
         Commit newCommit = new Commit (message, parentCommitID);
-        newCommit.setBlobs(new TreeMap<>(headCommit.getBlobs()));
-        // clone the HEAD commit's blobs
-
-        for (Map.Entry<String, String> entry : addedFiles.entrySet()){
-            String key = entry.getKey(); String value = entry.getValue();
-            newCommit.getBlobs().put(key, value);
+        Map<String, ObjectId> changes = new TreeMap<>(); // add already stored the blobs
+        for (Map.Entry<String, String> added : addedFiles.entrySet()){
+            String key = added.getKey();
+            changes.put(key, ObjectId.parse(added.getValue()));
             File sourceFile = join(STAGING_AREA, key);
-            File destFile = join(BLOBS, value);
-            if (!destFile.exists()) {
-                writeContents(destFile, readContentsAsString(sourceFile));
+            if (sourceFile.exists()){ // staged by an older gitlet that copied files here
+                ObjectStore.putBlob(sourceFile, ObjectId.nameOrNull(headCommit.getBlobID(key)));
+                Journal.delete(sourceFile);
             }
-            restrictedDelete(sourceFile);
         }
         for (String removedFile : removedFiles){
-            newCommit.getBlobs().remove(removedFile);
-        }
-        storeNewCommit(newCommit);
-        // update and write commitsGraph
-        Graph commitsGraph = readObject(COMMITSGRAPH, Graph.class);
-        commitsGraph.addEdge(getHeadCommitID(), parentCommitID);
-        writeObject(COMMITSGRAPH, commitsGraph);
-        restrictedDelete(ADDEDFILES);
-        restrictedDelete(REMOVEDFILES);
+            changes.put(removedFile, null);
+        }
+        // share the HEAD commit's tree, rewriting only the buckets that changed
+        newCommit.setTree(Tree.update(headCommit.getTree(), changes));
+        ObjectId newCommitID = storeNewCommit(newCommit, readContentsAsString(HEAD));
+        // append the new commit to commitsGraph
+        getGraph().add(newCommitID, newCommit.getTimestamp().getTime(), parentCommitID);
+        Journal.delete(ADDEDFILES);
+        Journal.delete(REMOVEDFILES);
         // using the staging area to modify the files tracked by new commit
         // write back any new object made or any modified object read earlier
     }
@@ -172,18 +181,16 @@ public class Repository implements Serializable {
         Map<String, String> addedFiles = getAddedFiles();
         SortedSet<String> removedFiles = getRemovedFiles();
         File sourceFile = join(CWD, target);
-        File addedFile = join(STAGING_AREA, target);
-        if (addedFile.exists()) {
+        if (addedFiles.containsKey(target)) {
             addedFiles.remove(target);
-            writeObject(ADDEDFILES, (Serializable) addedFiles);
-            restrictedDelete(addedFile);
-        }else if (getHeadCommit().getBlobs().containsKey(target)){
+            Journal.write(ADDEDFILES, serialize((Serializable) addedFiles));
+            Journal.delete(join(STAGING_AREA, target));
+        }else if (getHeadCommit().getBlobID(target) != null){
             removedFiles.add(target);
-            writeObject(REMOVEDFILES, (Serializable) removedFiles);
+            Journal.write(REMOVEDFILES, serialize((Serializable) removedFiles));
             if (sourceFile.exists()) { restrictedDelete(sourceFile); }
         }else {
-            System.out.println("No reason to remove the file.");
-            System.exit(0);
+            throw error("No reason to remove the file.");
         }
     }
     /** Starting at the current head commit, display information about each commit
@@ -193,51 +200,36 @@ public class Repository implements Serializable {
      * of commit nodes is called the commit’s history. For every node in this history,
      * the information it should display is the commit id, the time the commit was made,
      * and the commit message. Here is an example of the exact format it should follow:
+     * The walk follows first parents in the commit graph and only reads the commits it
+     * prints; ARGS may limit it as described in LogPrinter.
      * */
-    public static void log(){
-        SimpleDateFormat sdf = printLogStyleSet();
-        String commitID = getHeadCommitID(); Commit commit;
-        while (true){
-            commit = getCommit(commitID);
-            printLogInfo(commitID, commit, sdf);
-            if (commit.getParents().isEmpty()){ break; } // current commit is initial commit
-            commitID = commit.getParents().get(0);
-        }
-    }
-
-    private static SimpleDateFormat printLogStyleSet(){
-        SimpleDateFormat sdf = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.US);
-        //sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
-        return sdf;
-    }
-
-    private static void printLogInfo(String commitID, Commit commit, SimpleDateFormat sdf){
-        System.out.println("===");
-        System.out.println("commit " + commitID);
-        if(commit.getParents().size() >= 2){
-            System.out.print("Merge: ");
-            for (String str : commit.getParents()){
-                System.out.print(str.substring(0, 7) + "  ");
+    public static void log(String[] args){
+        LogPrinter printer = LogPrinter.parse(args);
+        Graph graph = getGraph();
+        for (int v = graph.label(getHeadCommitID()); v != Graph.NONE && printer.more(); v = graph.firstParent(v)){
+            if (printer.shows(graph.timestamp(v))){
+                ObjectId commitID = graph.id(v);
+                printer.print(commitID, getCommit(commitID));
             }
-            System.out.println();
         }
-        System.out.print("Date: ");
-        System.out.println(sdf.format(commit.getTimestamp()));
-        System.out.println(commit.getMessage());
-        System.out.println();
+        printer.flush();
     }
 
     /** Like log, except displays information about all commits ever made.
-     * The order of the commits does not matter. Hint: there is a useful method in 
-     * gitlet.Utils that will help you iterate over files within a directory. */
-    public static void globalLog(){
-        SimpleDateFormat sdf = printLogStyleSet();
-        for (String uidPrefix : COMMITS.list()){
-            for (String uidSuffix : plainFilenamesIn(join(COMMITS, uidPrefix))){
-                String UID = uidPrefix + uidSuffix;
-                printLogInfo(UID, getCommit(UID), sdf);
+     * The order of the commits does not matter; they are printed newest first,
+     * in the order of the commit graph, so that only the commits printed are read. */
+    public static void globalLog(String[] args){
+        LogPrinter printer = LogPrinter.parse(args);
+        Graph graph = getGraph();
+        for (int v : graph.newestFirst()){
+            if (!printer.more() || printer.older(graph.timestamp(v))){ break; } // the rest are older still
+            if (printer.shows(graph.timestamp(v))){
+                ObjectId commitID = graph.id(v);
+                // decoded directly: caching every commit would only evict the useful ones
+                printer.print(commitID, Commit.decode(ObjectStore.readCommit(commitID.name())));
             }
         }
+        printer.flush();
     }
     /** Prints out the ids of all commits that have the given commit message, one per
      *  line. If there are multiple such commits, it prints the ids out on separate
@@ -247,14 +239,11 @@ public class Repository implements Serializable {
      *  with that message.*/
     public static void find(String commitMsg){
         boolean suchCommitsExist = false;
-        for (String commitUidPrefix : COMMITS.list()){
-            for (String commitUidSuffix : plainFilenamesIn(join(COMMITS, commitUidPrefix))){
-                String commitID = commitUidPrefix + commitUidSuffix;
-                Commit commit = getCommit(commitID);
-                if (commit!= null && commit.getMessage().equals(commitMsg)){
-                    System.out.println(commitID);
-                    suchCommitsExist = true;
-                }
+        for (ObjectId commitID : MessageIndex.find(commitMsg)){ // candidates, hashes may collide
+            Commit commit = getCommit(commitID);
+            if (commit!= null && commit.getMessage().equals(commitMsg)){
+                System.out.println(commitID.name());
+                suchCommitsExist = true;
             }
         }
         if (!suchCommitsExist){
@@ -290,32 +279,33 @@ public class Repository implements Serializable {
         removedFiles.forEach(System.out::println);
         System.out.println();
         System.out.println("=== Modifications Not Staged For Commit ===");
-        SortedSet<String> cwdFiles = plainFilenamesIn(CWD);
+        SortedSet<String> cwdFiles = WorkTree.files();
         printMNSFC(getCurrentBlobs(), cwdFiles);
         System.out.println();
         System.out.println("=== Untracked Files ===");
         cwdFiles.forEach(System.out::println);
         System.out.println();
     }
-    private static Map<String, String> getCurrentBlobs(){
+    private static Map<String, ObjectId> getCurrentBlobs(){
         Map<String, String> addedFiles = getAddedFiles();
         SortedSet<String> removedFiles = getRemovedFiles();
         // get current state blobs
-        Map<String, String> currentBlobs = new TreeMap<>(getHeadCommit().getBlobs());
-        currentBlobs.putAll(addedFiles);
+        Map<String, ObjectId> currentBlobs = new TreeMap<>(getHeadCommit().getBlobs());
+        addedFiles.forEach((name, id) -> currentBlobs.put(name, ObjectId.parse(id)));
         for (String removedFile : removedFiles){
             currentBlobs.remove(removedFile);
         }
         return currentBlobs;
     }
     /** printMNSFC at same time modifying cwdFiles to untrackedFiles*/
-    private static void printMNSFC(Map<String, String> currentBlobs, SortedSet<String> cwdFiles){
+    private static void printMNSFC(Map<String, ObjectId> currentBlobs, SortedSet<String> cwdFiles){
+        // hash the tracked working files concurrently, then print in sorted order
+        Map<String, ObjectId> cwdFileIDs = StatIndex.hashAll(trackedInCwd(currentBlobs, cwdFiles));
         // iterate over current state blobs, the rest of cwdFiles is Untracked Files
-        for (Map.Entry<String, String> entry : currentBlobs.entrySet()){
-            String key = entry.getKey(); String value = entry.getValue();
+        for (Map.Entry<String, ObjectId> entry : currentBlobs.entrySet()){
+            String key = entry.getKey(); ObjectId value = entry.getValue();
             if (cwdFiles.remove(key)){ // return true if it contains the specified key
-                File sourceFile = join(CWD, key);
-                String sourceFileID = sha1(readContentsAsString(sourceFile));
+                ObjectId sourceFileID = cwdFileIDs.get(key);
                 if (!sourceFileID.equals(value)){
                     System.out.println(key + " (modified)");
                 } // rule 1. 2.
@@ -352,17 +342,17 @@ public class Repository implements Serializable {
         checkoutFile(commit, fileName);
     }
     private static void checkoutFile(Commit commit, String fileName){
-        String fileID = commit.getBlobs().get(fileName);
+        ObjectId fileID = commit.getBlobID(fileName);
         if (fileID == null){
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            throw error("File does not exist in that commit.");
         }
-        File source = join(BLOBS, fileID);
         File dest = join(CWD, fileName);
-        writeContents(dest, readContentsAsString(source));
+        ObjectStore.copyBlobTo(fileID.name(), dest);
+        StatIndex.record(fileName, fileID);
     }
     public static void checkoutCommitFile(String commitID, String fileName){
-        Commit commit = getCommit(commitID);
+        ObjectId fullCommitID = getCommitID(commitID);
+        Commit commit = fullCommitID == null ? null : getCommit(fullCommitID);
         if (commit != null){
             checkoutFile(commit, fileName);
         }else {
@@ -372,36 +362,71 @@ public class Repository implements Serializable {
     public static void checkoutBranch(String branchName){
         File branch = join(BRANCHES, branchName);
         if (!branch.exists()){
-            System.out.println("No such branch exists.");
-            System.exit(0);
+            throw error("No such branch exists.");
         }
         if (branchName.equals(readContentsAsString(HEAD))){
-            System.out.println("No need to checkout the current branch.");
-            System.exit(0);
+            throw error("No need to checkout the current branch.");
         }
-        Commit branchCommit = getCommit(readContentsAsString(branch));
-        SortedSet<String> cwdFiles = plainFilenamesIn(CWD);
+        Commit branchCommit = getCommit(ObjectId.parse(readContentsAsString(branch)));
+        SortedSet<String> cwdFiles = WorkTree.files();
         recreateCwdWithCommit(branchCommit.getBlobs(), cwdFiles);
-        restrictedDeleteFilesInDir(STAGING_AREA);
-        restrictedDelete(ADDEDFILES);
-        restrictedDelete(REMOVEDFILES);
-        writeContents(HEAD, branchName);
-    }
-    /** at same time modifying cwdFiles to untrackedFiles */
-    private static void recreateCwdWithCommit(Map<String, String> currentBlobs, SortedSet<String> cwdFiles){
-        for (Map.Entry<String, String> entry : currentBlobs.entrySet()){
-            String key = entry.getKey(); String value = entry.getValue();
-            File cwdFile = join(CWD, key);
-            if (cwdFiles.remove(key)){
-                String cwdFileId = sha1(readContentsAsString(cwdFile));
-                if (cwdFileId.equals(value)){ continue; }
+        clearStagingArea();
+        Journal.write(HEAD, branchName);
+    }
+    /** at same time modifying cwdFiles to untrackedFiles. Blobs are written and
+     *  untracked files deleted concurrently; callers must have done any check
+     *  that may abort the command (e.g. for untracked files) beforehand, since
+     *  files start changing as soon as this is called. With -Dgitlet.timings=true
+     *  the time spent in each phase is reported on stderr. */
+    private static void recreateCwdWithCommit(Map<String, ObjectId> currentBlobs, SortedSet<String> cwdFiles){
+        long start = System.nanoTime();
+        Map<String, ObjectId> cwdFileIDs = StatIndex.hashAll(trackedInCwd(currentBlobs, cwdFiles));
+        start = timing("hash", start);
+        Map<String, ObjectId> toWrite = new HashMap<>();
+        for (Map.Entry<String, ObjectId> entry : currentBlobs.entrySet()){
+            String key = entry.getKey(); ObjectId value = entry.getValue();
+            if (cwdFiles.remove(key) && cwdFileIDs.get(key).equals(value)){ continue; }
+            toWrite.put(key, value);
+        }
+        WorkerPool.forEach(toWrite.entrySet(),
+                entry -> ObjectStore.copyBlobTo(entry.getValue().name(), join(CWD, entry.getKey())));
+        start = timing("write", start);
+        WorkerPool.forEach(cwdFiles, untrackedFileInSpecifiedBlobs ->
+                restrictedDelete(join(CWD, untrackedFileInSpecifiedBlobs)));
+        start = timing("delete", start);
+        StatIndex.recordAll(toWrite);
+        cwdFiles.forEach(StatIndex::forget);
+        timing("index", start);
+    }
+
+    /** Writes the working files that are keys of CHANGES with the blobs they
+     *  map to, or deletes them if they map to null, leaving all other files
+     *  alone. Like recreateCwdWithCommit, works concurrently and must only
+     *  be called once nothing can abort the command. */
+    private static void updateCwdWithChanges(Map<String, ObjectId> changes){
+        Map<String, ObjectId> toWrite = new HashMap<>();
+        List<String> toDelete = new ArrayList<>();
+        for (Map.Entry<String, ObjectId> entry : changes.entrySet()){
+            if (entry.getValue() != null){
+                toWrite.put(entry.getKey(), entry.getValue());
+            }else {
+                toDelete.add(entry.getKey());
             }
-            File source = join(BLOBS, value);
-            writeContents(cwdFile, readContentsAsString(source));
         }
-        for (String untrackedFileInSpecifiedBlobs : cwdFiles){
-            restrictedDelete(join(CWD, untrackedFileInSpecifiedBlobs));
+        WorkerPool.forEach(toWrite.entrySet(),
+                entry -> ObjectStore.copyBlobTo(entry.getValue().name(), join(CWD, entry.getKey())));
+        WorkerPool.forEach(toDelete, name -> restrictedDelete(join(CWD, name)));
+        StatIndex.recordAll(toWrite);
+        toDelete.forEach(StatIndex::forget);
+    }
+
+    /** return the files of currentBlobs that are present in cwdFiles */
+    private static List<String> trackedInCwd(Map<String, ObjectId> currentBlobs, SortedSet<String> cwdFiles){
+        List<String> tracked = new ArrayList<>();
+        for (String file : currentBlobs.keySet()){
+            if (cwdFiles.contains(file)){ tracked.add(file); }
         }
+        return tracked;
     }
 
     /** Creates a new branch with the given name, and points it at the current head commit.
@@ -412,10 +437,9 @@ public class Repository implements Serializable {
     public static void branch(String branchName){
         File newBranch = join(BRANCHES, branchName);
         if (newBranch.exists()){
-            System.out.println("A branch with that name already exists.");
-            System.exit(0);
+            throw error("A branch with that name already exists.");
         }
-        writeContents(newBranch, getHeadCommitID());
+        Journal.write(newBranch, getHeadCommitID().name());
     }
     /**  Deletes the branch with the given name. This only means to delete the pointer
      * associated with the branch; it does not mean to delete all commits that were
@@ -423,14 +447,12 @@ public class Repository implements Serializable {
     public static void rmBranch(String branchName){
         File branch = join(BRANCHES, branchName);
         if (!branch.exists()){
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
         }
         if (branchName.equals(readContentsAsString(HEAD))){
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            throw error("Cannot remove the current branch.");
         }
-        restrictedDelete(branch);
+        Journal.delete(branch);
     }
     /** Checks out all the files tracked by the given commit. Removes tracked files
      *  that are not present in that commit. Also moves the current branch’s head to
@@ -443,24 +465,21 @@ public class Repository implements Serializable {
      *  overwritten by the reset, print `There is an untracked file in the way; delete
      *  it, or add and commit it first.` and exit; perform this check before doing
      *  anything else.*/
-    public static void reset(String commitID){
-        commitID = getCommitID(commitID);
-        Commit commit = getCommit(commitID);
+    public static void reset(String shortenedID){
+        ObjectId commitID = getCommitID(shortenedID);
+        Commit commit = commitID == null ? null : getCommit(commitID);
         if (commit == null){
-            System.out.println("No commit with that id exists.");System.exit(0);
+            throw error("No commit with that id exists.");
         }
-        SortedSet<String> cwdFiles= plainFilenamesIn(CWD);
+        SortedSet<String> cwdFiles= WorkTree.files();
         if (!getUntrackedFiles(getHeadCommit().getBlobs(), cwdFiles).isEmpty()){
-            System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-            System.exit(0);
+            throw error("There is an untracked file in the way; delete it, or add and commit it first.");
         }
         recreateCwdWithCommit(commit.getBlobs(), cwdFiles);
-        writeContents(join(BRANCHES, readContentsAsString(HEAD)), commitID);
-        restrictedDeleteFilesInDir(STAGING_AREA);
-        restrictedDelete(ADDEDFILES);
-        restrictedDelete(REMOVEDFILES);
+        Journal.write(join(BRANCHES, readContentsAsString(HEAD)), commitID.name());
+        clearStagingArea();
     }
-    private static List<String> getUntrackedFiles(Map<String, String> currentBlobs, SortedSet<String> cwdFiles){
+    private static List<String> getUntrackedFiles(Map<String, ObjectId> currentBlobs, SortedSet<String> cwdFiles){
         List<String> untrackedFiles = new ArrayList<>();
         for(String file : cwdFiles){
             if (!currentBlobs.containsKey(file)){
@@ -476,81 +495,44 @@ public class Repository implements Serializable {
      *  3. Neither: Merge two commit into a new commit.*/
     public static void merge(String givenBranchName){
         if (!getAddedFiles().isEmpty() && !getRemovedFiles().isEmpty()){
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+            throw error("You have uncommitted changes.");
         }
         if (!join(BRANCHES, givenBranchName).exists()){
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
         }
-        String givenBranchID = readContentsAsString(join(BRANCHES, givenBranchName));
-        String currentBranchID = getHeadCommitID();
+        ObjectId givenBranchID = ObjectId.parse(readContentsAsString(join(BRANCHES, givenBranchName)));
+        ObjectId currentBranchID = getHeadCommitID();
         if (givenBranchID.equals(currentBranchID)){
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
-        }
-        Map<String, String> currentBranchCommitBlobs = new TreeMap<>(getCommit(currentBranchID).getBlobs());
-        SortedSet<String> cwdFiles = plainFilenamesIn(CWD);
-        if (!getUntrackedFiles(currentBranchCommitBlobs, cwdFiles).isEmpty()){
-            System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-            System.exit(0);
+            throw error("Cannot merge a branch with itself.");
+        }
+        SortedSet<String> cwdFiles = WorkTree.files();
+        if (!getUntrackedFiles(getCommit(currentBranchID).getBlobs(), cwdFiles).isEmpty()){
+            throw error("There is an untracked file in the way; delete it, or add and commit it first.");
         } // failure cases
-        Graph commitsGraph = readObject(COMMITSGRAPH, Graph.class);
-        String splitPointID = commitsGraph.getSplitPointID(givenBranchID, currentBranchID);
-        // get split point
-        if (splitPointID.equals(givenBranchID)){
+        Graph commitsGraph = getGraph();
+        if (commitsGraph.isAncestor(givenBranchID, currentBranchID)){
             System.out.println("Given branch is an ancestor of the current branch.");
-        }else if (splitPointID.equals(currentBranchID)){
+        }else if (commitsGraph.isAncestor(currentBranchID, givenBranchID)){
             checkoutBranch(givenBranchName);// checktout the given branch
             System.out.println("Current branch fast-forwarded.");
         }else {
+            ObjectId splitPointID = commitsGraph.getSplitPointID(givenBranchID, currentBranchID);
+            // get split point
             String message = String.format("Merged %s into %s.", givenBranchName, readContentsAsString(HEAD));
-            Commit newCommit = new Commit(message, currentBranchID, givenBranchID);
-            newCommit.setBlobs(new TreeMap<>(currentBranchCommitBlobs));
-            Map<String, String> givenBranchCommitBlobs = new TreeMap<>(getCommit(givenBranchID).getBlobs());
-            Map<String, String> splitPointCommitBlobs = new TreeMap<>(getCommit(splitPointID).getBlobs());
-            for (Map.Entry<String, String> entry : currentBranchCommitBlobs.entrySet()){
-                String currentBranchCommitFileName = entry.getKey();
-                String currentBranchCommitFileID = entry.getValue();
-                String givenBranchCommitFileID = givenBranchCommitBlobs.remove(currentBranchCommitFileName);
-                String splitPointCommitFileID = splitPointCommitBlobs.get(currentBranchCommitFileName);
-                if (!currentBranchCommitFileID.equals(givenBranchCommitFileID)){ //3
-                    if (givenBranchCommitFileID == null){
-                        if (currentBranchCommitFileID.equals(splitPointCommitFileID)){ //6
-                            newCommit.getBlobs().remove(currentBranchCommitFileName);
-                        }else if (splitPointCommitFileID != null){ //8
-                            String mergedFileID = mergeConflict(currentBranchCommitFileID, null);//mergeConflict()
-                            newCommit.getBlobs().put(currentBranchCommitFileName, mergedFileID);
-                        } //4
-                    }else {
-                        if (currentBranchCommitFileID.equals(splitPointCommitFileID)){ //1
-                            newCommit.getBlobs().put(currentBranchCommitFileName, givenBranchCommitFileID);
-                        }else if (!givenBranchCommitFileID.equals(splitPointCommitFileID)){ //8
-                            String mergedFileID = mergeConflict(currentBranchCommitFileID, givenBranchCommitFileID);//mergeConflict()
-                            newCommit.getBlobs().put(currentBranchCommitFileName, mergedFileID);
-                        } //2
-                    }
-                }
+            Commit currentCommit = getCommit(currentBranchID);
+            Merge merged = new Merge(getCommit(splitPointID).getTree(), currentCommit.getTree(),
+                    getCommit(givenBranchID).getTree());
+            Map<String, ObjectId> changes = new TreeMap<>(merged.changes);
+            for (Map.Entry<String, ObjectId[]> conflict : merged.conflicts.entrySet()){ //8
+                ObjectId[] ids = conflict.getValue();
+                changes.put(conflict.getKey(), mergeConflict(ids[0], ids[1], ids[2]));
             }
-            for (Map.Entry<String, String> entry : givenBranchCommitBlobs.entrySet()){
-                String givenBranchCommitFileName = entry.getKey();
-                String givenBranchCommitFileID = entry.getValue();
-                String splitPointCommitFileID = splitPointCommitBlobs.get(givenBranchCommitFileName);
-                if (!givenBranchCommitFileID.equals(splitPointCommitFileID)){ //7
-                    if (splitPointCommitFileID == null){ //5
-                        newCommit.getBlobs().put(givenBranchCommitFileName, givenBranchCommitFileID);
-                    }else { //8
-                        String mergedFileID = mergeConflict(null, givenBranchCommitFileID); //mergeConflict()
-                        newCommit.getBlobs().put(givenBranchCommitFileName, mergedFileID);
-                    }
-                }
-            }
-            recreateCwdWithCommit(newCommit.getBlobs(), cwdFiles);
-            storeNewCommit(newCommit);
+            Commit newCommit = new Commit(message, currentBranchID, givenBranchID);
+            newCommit.setTree(Tree.update(currentCommit.getTree(), changes));
+            updateCwdWithChanges(changes);
+            ObjectId newCommitID = storeNewCommit(newCommit, readContentsAsString(HEAD));
             System.out.println(message);
-            commitsGraph.addEdge(getHeadCommitID(), givenBranchID);
-            commitsGraph.addEdge(getHeadCommitID(), currentBranchID);
-            writeObject(COMMITSGRAPH, commitsGraph);
+            commitsGraph.add(newCommitID, newCommit.getTimestamp().getTime(), currentBranchID, givenBranchID);
             // GC: givenBranchCommitID, CC: currentBranchCommitID, SC: splitPointCommitID
             // GF: givenBranchCommitBlobsFileID, CF: currentBranchCommitFile, SF: splitPointCommitFile
             // 1. if GF != SF && CF == SF. Checkout and staged GF
@@ -571,17 +553,28 @@ public class Repository implements Serializable {
             // sout("Encountered a merge conflict.")
         }
     }
-    private static String mergeConflict(String currentBranchFileID, String givenBranchFileID){
+    /** Merges the versions of a file changed on both branches line by line
+     *  against its version at the split point, marking only the regions
+     *  changed differently on both sides, and returns the merged blob. If
+     *  either branch deleted the file, the whole file is a conflict. */
+    private static ObjectId mergeConflict(ObjectId splitPointFileID, ObjectId currentBranchFileID,
+                                          ObjectId givenBranchFileID){
+        if (currentBranchFileID != null && givenBranchFileID != null){
+            LineMerge merged = new LineMerge(
+                    splitPointFileID == null ? new byte[0] : ObjectStore.readBlob(splitPointFileID.name()),
+                    ObjectStore.readBlob(currentBranchFileID.name()), ObjectStore.readBlob(givenBranchFileID.name()));
+            if (merged.conflicts > 0){ System.out.println("Encountered a merge conflict."); }
+            return ObjectId.parse(ObjectStore.putBlob(merged.contents, currentBranchFileID.name()));
+        }
         System.out.println("Encountered a merge conflict.");
         String currentBranchFileContents = currentBranchFileID == null ? ""
-                : readContentsAsString(join(BLOBS, currentBranchFileID));
+                : new String(ObjectStore.readBlob(currentBranchFileID.name()), StandardCharsets.UTF_8);
         String givenBranchFileContents = givenBranchFileID == null ? ""
-                : readContentsAsString(join(BLOBS, givenBranchFileID));
+                : new String(ObjectStore.readBlob(givenBranchFileID.name()), StandardCharsets.UTF_8);
         String mergedFileContents= "<<<<<<< HEAD" + '\n' + currentBranchFileContents
                 + "=======" + '\n' + givenBranchFileContents + ">>>>>>>";
-        String mergedFileID = sha1(mergedFileContents);
-        writeContents(join(BLOBS, mergedFileID), mergedFileContents);
-        return mergedFileID;
+        return ObjectId.parse(ObjectStore.putBlob(mergedFileContents.getBytes(StandardCharsets.UTF_8),
+                (currentBranchFileID != null ? currentBranchFileID : givenBranchFileID).name()));
     }
 
     /** return the map mapping added files with their hashID */
@@ -592,54 +585,109 @@ public class Repository implements Serializable {
     private static SortedSet<String> getRemovedFiles(){
         return REMOVEDFILES.exists() ? readObject(REMOVEDFILES, TreeSet.class) : new TreeSet<>();
     }
-    /** store commit in specific path using UID */
-    private static void storeNewCommit(Commit newCommit){
-        byte[] newCommitContents = serialize(newCommit);
-        String UID = sha1(newCommitContents);
-        File commitIDprefix = join(COMMITS, UID.substring(0, 2));
-        commitIDprefix.mkdir();
-        File outFile = join(commitIDprefix, UID.substring(2));
-        writeContents(outFile, newCommitContents);
-        File currentBranch = join(BRANCHES, readContentsAsString(HEAD));
-        writeContents(currentBranch, UID);
-    }
-    /** return the specific commit object using commitID*/
-    private static Commit getCommit(String commitID){
-        if (commitID.length() != 40) { commitID = getCommitID(commitID); }
-        File commit = join(COMMITS, commitID.substring(0, 2), commitID.substring(2));
-        return commit.exists() ? readObject(commit, Commit.class) : null;
-    }
-    /** return complete commit ID with shortened ID input */
-    private static String getCommitID(String shortenedID){
-        if (shortenedID.length() < 4) { System.exit(0); } //like real git except throwing error message
-        File uidPrefix = join(COMMITS, shortenedID.substring(0, 2));
-        if (!uidPrefix.exists()) { return null; }
-        for (String uidSuffix : plainFilenamesIn(uidPrefix)){
-            if (uidSuffix.startsWith(shortenedID.substring(2))){
-                return uidPrefix.getName() + uidSuffix;
-            }
-        }
-        return null;
+    /** Unstages everything, when the current commit changes */
+    private static void clearStagingArea(){
+        for (String fileName : plainFilenamesIn(STAGING_AREA)){
+            Journal.delete(join(STAGING_AREA, fileName));
+        }
+        Journal.delete(ADDEDFILES);
+        Journal.delete(REMOVEDFILES);
+    }
+    /** store commit in the object store, stage pointing the branch BRANCHNAME at it and return its UID */
+    private static ObjectId storeNewCommit(Commit newCommit, String branchName){
+        ObjectId UID = ObjectId.parse(ObjectStore.putCommit(newCommit.encode()));
+        MessageIndex.add(UID, newCommit.getMessage());
+        Journal.write(join(BRANCHES, branchName), UID.name());
+        return UID;
+    }
+    /** return the specific commit object using commitID. Decoded commits are
+     *  cached, along with their files once loaded, so they must not be modified */
+    private static Commit getCommit(ObjectId commitID){
+        Commit commit = COMMIT_CACHE.get(commitID);
+        if (commit != null) { return commit; }
+        byte[] contents = ObjectStore.readCommit(commitID.name());
+        return contents != null ? COMMIT_CACHE.put(commitID, Commit.decode(contents)) : null;
+    }
+    /** return complete commit ID with shortened (or complete) ID input, or null if no commit has it */
+    private static ObjectId getCommitID(String shortenedID){
+        if (shortenedID.length() < 4) { throw new GitletException(); } //like real git except throwing error message
+        List<ObjectId> commitIDs = getGraph().withPrefix(shortenedID, 2);
+        if (commitIDs.size() > 1) { throw error("Commit id " + shortenedID + " is ambiguous."); }
+        return commitIDs.isEmpty() ? null : commitIDs.get(0);
     }
     /** get HEAD commitID & commit object */
-    private static String getHeadCommitID(){
-        return readContentsAsString(join(BRANCHES, readContentsAsString(HEAD)));
+    private static ObjectId getHeadCommitID(){
+        return ObjectId.parse(readContentsAsString(join(BRANCHES, readContentsAsString(HEAD))));
     }
     private static Commit getHeadCommit(){
         return getCommit(getHeadCommitID());
     }
+    /** get the commit graph, loading it on first use */
+    private static Graph getGraph(){
+        if (commitsGraph == null) { commitsGraph = Graph.load(COMMITSGRAPH); }
+        return commitsGraph;
+    }
+    /** Drops the commit graph kept in memory, so that it is read again from
+     *  COMMITSGRAPH when next needed. */
+    static void reloadGraph(){
+        commitsGraph = null;
+    }
+
+    /** Moves all loose blobs and commits into a single packfile, so that the
+     *  object store holds a few large files instead of one file per object.
+     *  Packed objects are read through the same paths as loose ones. */
+    public static void repack(){
+        ObjectStore.repack();
+    }
+
+    /** Rewrites every commit stored by an older version (Java-serialized,
+     *  or listing its files instead of a tree) in the current encoding. Since this changes their UIDs, commits are
+     *  rewritten parents first with their parents renamed (which also
+     *  renames newer commits made on top of old ones), then branches
+     *  are pointed at the new UIDs, the old commits are deleted and the
+     *  commit graph is rebuilt. Working files and the staging area are
+     *  not affected. */
+    public static void migrate(){
+        Graph commitsGraph = getGraph();
+        Map<ObjectId, ObjectId> renamed = new HashMap<>();
+        for (int v = 0; v < commitsGraph.V(); v += 1){ // parents come first
+            ObjectId id = commitsGraph.id(v);
+            byte[] contents = ObjectStore.readCommit(id.name());
+            Commit commit = Commit.decode(contents);
+            List<ObjectId> parents = new ArrayList<>();
+            for (ObjectId parent : commit.getParents()){
+                parents.add(renamed.getOrDefault(parent, parent));
+            }
+            if (!Commit.isOutdated(contents) && parents.equals(commit.getParents())){ continue; }
+            renamed.put(id, ObjectId.parse(ObjectStore.putCommit(commit.withParents(parents).encode())));
+        }
+        if (renamed.isEmpty()){ return; }
+        for (String branch : plainFilenamesIn(BRANCHES)){
+            File branchFile = join(BRANCHES, branch);
+            ObjectId id = ObjectId.parse(readContentsAsString(branchFile));
+            if (renamed.containsKey(id)){ Journal.write(branchFile, renamed.get(id).name()); }
+        }
+        Journal.commit(); // the branches have moved before the commits they left are deleted
+        Set<String> deleted = new HashSet<>();
+        renamed.keySet().forEach(id -> deleted.add(id.name()));
+        ObjectStore.deleteCommits(deleted);
+        COMMIT_CACHE.clear();
+        restrictedDelete(COMMITSGRAPH);
+        restrictedDelete(MESSAGES); // rebuilt when next needed
+        reloadGraph();
+        getGraph(); // rebuilds it from the remaining commits
+        System.out.printf("Migrated %d commits.%n", renamed.size());
+    }
 
     public static void checkDIR(){
         if (!GITLET_DIR.exists()){
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw error("Not in an initialized Gitlet directory.");
         }
     }
     //Special case: Set correctNum = -1, actualNum = 0 just to print error message
     public static void checkARGS(int correctNum, int actualNum){
         if (actualNum != correctNum){
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw error("Incorrect operands.");
         }
     }
 }
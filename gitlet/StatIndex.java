@@ -0,0 +1,227 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** A cache of the blob UIDs of working files, keyed by their stat data, so
+ *  that files which have not changed since they were last hashed are
+ *  recognized without reading them. It is persisted in INDEX as
+ *      "GSTI" version count (path size mtime inode uid)*
+ *  with mtime in nanoseconds and uid raw. A cached UID is trusted only if
+ *  size, mtime and inode all still match and the file was modified strictly
+ *  before the index itself was last written: a file changed within the same
+ *  timestamp tick as the index write (racily clean) is always rehashed.
+ *
+ *  @author Xinpeng WU
+ */
+class StatIndex {
+    /** Magic number and format version of the index file. */
+    private static final int MAGIC = 0x47535449; // "GSTI"
+    private static final int VERSION = 1;
+
+    /** The stat data and blob UID recorded for one working file. */
+    private static class Entry {
+        final long size;
+        final long mtime;
+        final long inode;
+        final ObjectId id;
+        Entry(long size, long mtime, long inode, ObjectId id){
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.id = id;
+        }
+        boolean matches(Entry stat){
+            return size == stat.size && mtime == stat.mtime && inode == stat.inode;
+        }
+    }
+
+    /** The entries by working file name, loaded on first use. */
+    private static TreeMap<String, Entry> entries;
+    /** The modification time of INDEX when it was loaded; entries whose
+     *  files were modified at or after it are racily clean. */
+    private static long racyTime;
+    /** Whether ENTRIES differs from INDEX. */
+    private static boolean dirty;
+    /** Whether the file system reports unix attributes, such as inodes. */
+    private static volatile boolean unixAttributes = true;
+
+    /** Returns the entries, reading INDEX if needed. */
+    private static TreeMap<String, Entry> entries(){
+        if (entries != null){ return entries; }
+        entries = new TreeMap<>();
+        racyTime = Long.MIN_VALUE;
+        if (!INDEX.exists()){ return entries; }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(INDEX.toPath())))){
+            racyTime = Files.getLastModifiedTime(INDEX.toPath()).to(TimeUnit.NANOSECONDS);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION){ return entries; }
+            int count = in.readInt();
+            byte[] uid = new byte[UID_BYTES];
+            for (int i = 0; i < count; i += 1){
+                String name = in.readUTF();
+                long size = in.readLong(), mtime = in.readLong(), inode = in.readLong();
+                in.readFully(uid);
+                entries.put(name, new Entry(size, mtime, inode, ObjectId.of(uid, 0)));
+            }
+        } catch (IOException excp){
+            entries.clear(); // a damaged cache is simply rebuilt
+        }
+        return entries;
+    }
+
+    /** Returns the stat data of FILE as an entry with no UID. */
+    private static Entry stat(File file){
+        Path path = file.toPath();
+        try {
+            if (unixAttributes){
+                try {
+                    Map<String, Object> attrs = Files.readAttributes(path, "unix:size,lastModifiedTime,ino");
+                    return new Entry((Long) attrs.get("size"),
+                            ((FileTime) attrs.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS),
+                            (Long) attrs.get("ino"), null);
+                } catch (UnsupportedOperationException excp){
+                    unixAttributes = false;
+                }
+            }
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            Object key = attrs.fileKey();
+            return new Entry(attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                    key == null ? 0 : key.hashCode(), null);
+        } catch (IOException excp){
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the SHA-1 UID of the working file NAME, reading it only if
+     *  its stat data does not match a trustworthy cached entry. */
+    static ObjectId hash(String name){
+        entries();
+        Entry entry = lookup(name);
+        if (entries.get(name) != entry){
+            entries.put(name, entry);
+            dirty = true;
+        }
+        WorkTree.verified(name);
+        return entry.id;
+    }
+
+    /** Returns the SHA-1 UIDs of the working files NAMES, keyed and sorted by
+     *  name. Files are stat'ed and, where needed, hashed concurrently on the
+     *  WorkerPool; the cache is only updated afterwards, from this thread.
+     *  Files the WorkTree vouches for are not handed to the pool at all. */
+    static SortedMap<String, ObjectId> hashAll(Collection<String> names){
+        entries();
+        SortedMap<String, ObjectId> ids = new TreeMap<>();
+        List<String> toCheck = new ArrayList<>();
+        for (String name : names){
+            Entry cached = entries.get(name);
+            if (cached != null && WorkTree.unchanged(name)){
+                ids.put(name, cached.id);
+            }else {
+                toCheck.add(name);
+            }
+        }
+        Map<String, Entry> found = WorkerPool.map(toCheck, StatIndex::lookup);
+        for (Map.Entry<String, Entry> e : found.entrySet()){
+            if (entries.get(e.getKey()) != e.getValue()){
+                entries.put(e.getKey(), e.getValue());
+                dirty = true;
+            }
+            WorkTree.verified(e.getKey());
+            ids.put(e.getKey(), e.getValue().id);
+        }
+        return ids;
+    }
+
+    /** Returns the cached entry of the working file NAME if it can be
+     *  trusted, and otherwise a new entry made by hashing the file. An entry
+     *  is trusted without even a stat if the WorkTree saw no change to the
+     *  file since it was last verified. Only reads ENTRIES, so it may run on
+     *  several threads at once. */
+    private static Entry lookup(String name){
+        Entry cached = entries.get(name);
+        if (cached != null && WorkTree.unchanged(name)){
+            return cached;
+        }
+        File file = join(CWD, name);
+        Entry stat = stat(file);
+        if (cached != null && cached.matches(stat) && cached.mtime < racyTime){
+            return cached;
+        }
+        return new Entry(stat.size, stat.mtime, stat.inode, ObjectId.of(sha1Bytes(file)));
+    }
+
+    /** Records that the working file NAME was just written with blob ID. */
+    static void record(String name, ObjectId id){
+        Entry stat = stat(join(CWD, name));
+        entries().put(name, new Entry(stat.size, stat.mtime, stat.inode, id));
+        dirty = true;
+    }
+
+    /** Records that the working files named by the keys of WRITTEN were just
+     *  written with the blobs they map to, stat'ing them concurrently. */
+    static void recordAll(Map<String, ObjectId> written){
+        entries();
+        Map<String, Entry> stats = WorkerPool.map(written.keySet(), name -> stat(join(CWD, name)));
+        for (Map.Entry<String, Entry> e : stats.entrySet()){
+            Entry stat = e.getValue();
+            entries.put(e.getKey(), new Entry(stat.size, stat.mtime, stat.inode, written.get(e.getKey())));
+            dirty = true;
+        }
+    }
+
+    /** Forgets the working file NAME, which has been deleted. */
+    static void forget(String name){
+        if (entries().remove(name) != null){ dirty = true; }
+    }
+
+    /** Drops the entries, which are read again from INDEX when next needed.
+     *  Entries not yet saved are lost. */
+    static void reload(){
+        entries = null;
+        dirty = false;
+    }
+
+    /** Writes the entries back to INDEX if they changed. */
+    static void save(){
+        if (!dirty || !GITLET_DIR.exists()){ return; }
+        try {
+            File tmp = File.createTempFile("tmp-index", null, GITLET_DIR);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))){
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> e : entries.entrySet()){
+                    Entry entry = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.mtime);
+                    out.writeLong(entry.inode);
+                    out.write(entry.id.toBytes());
+                }
+            }
+            Files.move(tmp.toPath(), INDEX.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            racyTime = Files.getLastModifiedTime(INDEX.toPath()).to(TimeUnit.NANOSECONDS);
+            dirty = false;
+        } catch (IOException excp){
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
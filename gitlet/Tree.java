@@ -0,0 +1,153 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/** Content-addressed trees, which record the files of a commit so that
+ *  commits share whatever did not change. Gitlet tracks one flat directory,
+ *  so rather than a tree per directory the files are spread over FANOUT
+ *  buckets by a hash of their name: a root tree maps bucket names (two hex
+ *  digits) to bucket trees, which map file names to blob UIDs. A commit
+ *  that changes a few files writes only their buckets and a new root, and
+ *  two sets of files can be compared bucket by bucket, skipping the buckets
+ *  whose UIDs are equal. Empty buckets are left out. Both kinds of tree are
+ *  encoded alike:
+ *      "GTRE" version count (name uid)*
+ *  with names as a length and UTF-8 bytes, uids raw, and entries sorted by
+ *  name.
+ *
+ *  @author Xinpeng WU
+ */
+class Tree {
+    /** Magic number and format version of encoded trees. */
+    private static final int MAGIC = 0x47545245; // "GTRE"
+    private static final int VERSION = 1;
+    /** The number of buckets. */
+    static final int FANOUT = 256;
+    /** The name of each bucket. */
+    private static final String[] BUCKET_NAMES = new String[FANOUT];
+    static {
+        for (int b = 0; b < FANOUT; b += 1){
+            BUCKET_NAMES[b] = String.format("%02x", b);
+        }
+    }
+
+    /** Returns the name of the bucket that holds file NAME. String.hashCode
+     *  is fixed by the language, so buckets never move; its bits are mixed
+     *  because names often differ only in their last characters. */
+    static String bucket(String name){
+        int h = name.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return BUCKET_NAMES[h & (FANOUT - 1)];
+    }
+
+    /** Returns the encoding of ENTRIES. */
+    static byte[] encode(SortedMap<String, ObjectId> entries){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + 48 * entries.size());
+        try (DataOutputStream out = new DataOutputStream(bytes)){
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, ObjectId> e : entries.entrySet()){
+                byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+                out.write(e.getValue().toBytes());
+            }
+        } catch (IOException excp){
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the entries of the tree encoded in CONTENTS. */
+    static SortedMap<String, ObjectId> decode(byte[] contents){
+        SortedMap<String, ObjectId> entries = new TreeMap<>();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents))){
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION){
+                throw new IllegalArgumentException("unknown tree format");
+            }
+            byte[] uid = new byte[UID_BYTES];
+            for (int i = in.readInt(); i > 0; i -= 1){
+                byte[] name = new byte[in.readInt()];
+                in.readFully(name);
+                in.readFully(uid);
+                entries.put(new String(name, StandardCharsets.UTF_8), ObjectId.of(uid, 0));
+            }
+        } catch (IOException excp){
+            throw new IllegalArgumentException("corrupt tree: " + excp.getMessage());
+        }
+        return entries;
+    }
+
+    /** Returns the entries of the stored tree ID. */
+    static SortedMap<String, ObjectId> read(ObjectId id){
+        byte[] contents = ObjectStore.readTree(id.name());
+        if (contents == null){
+            throw new IllegalArgumentException("missing tree " + id);
+        }
+        return decode(contents);
+    }
+
+    /** Returns every file of the root tree ROOT, mapped to its blob UID and
+     *  sorted by name. */
+    static SortedMap<String, ObjectId> files(ObjectId root){
+        SortedMap<String, ObjectId> files = new TreeMap<>();
+        for (ObjectId bucketID : read(root).values()){
+            files.putAll(read(bucketID));
+        }
+        return files;
+    }
+
+    /** Returns the blob UID of file NAME in the root tree ROOT, or null if
+     *  it has none. Reads only the root and one bucket. */
+    static ObjectId get(ObjectId root, String name){
+        ObjectId bucketID = read(root).get(bucket(name));
+        return bucketID == null ? null : read(bucketID).get(name);
+    }
+
+    /** Stores the root tree of FILES, a map of file names to blob UIDs, and
+     *  returns its UID. */
+    static ObjectId write(Map<String, ObjectId> files){
+        return update(null, files);
+    }
+
+    /** Stores the root tree that is ROOT (or empty, if ROOT is null) with
+     *  CHANGES applied and returns its UID. CHANGES maps file names to their
+     *  new blob UIDs, or to null for files that are no longer tracked. Only
+     *  the buckets holding changed files are read and written. */
+    static ObjectId update(ObjectId root, Map<String, ObjectId> changes){
+        SortedMap<String, ObjectId> buckets = root == null ? new TreeMap<>() : read(root);
+        Map<String, Map<String, ObjectId>> changesByBucket = new HashMap<>();
+        for (Map.Entry<String, ObjectId> e : changes.entrySet()){
+            changesByBucket.computeIfAbsent(bucket(e.getKey()), b -> new HashMap<>())
+                    .put(e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, Map<String, ObjectId>> e : changesByBucket.entrySet()){
+            ObjectId bucketID = buckets.get(e.getKey());
+            SortedMap<String, ObjectId> files = bucketID == null ? new TreeMap<>() : read(bucketID);
+            for (Map.Entry<String, ObjectId> change : e.getValue().entrySet()){
+                if (change.getValue() == null){
+                    files.remove(change.getKey());
+                }else {
+                    files.put(change.getKey(), change.getValue());
+                }
+            }
+            if (files.isEmpty()){
+                buckets.remove(e.getKey());
+            }else {
+                buckets.put(e.getKey(), ObjectId.parse(ObjectStore.putTree(encode(files))));
+            }
+        }
+        return ObjectId.parse(ObjectStore.putTree(encode(buckets)));
+    }
+}
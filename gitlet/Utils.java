@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -9,8 +10,11 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -31,28 +35,53 @@ class Utils {
 
     /* SHA-1 HASH VALUES. */
 
-    /** Returns the SHA-1 hash of the concatenation of VALS, which may
-     *  be any mixture of byte arrays and Strings. */
-    static String sha1(Object... vals) {
+    /** A SHA-1 digest for each thread, since getInstance looks up the
+     *  provider and builds a new digest every time. */
+    private static final ThreadLocal<MessageDigest> SHA1 = ThreadLocal.withInitial(() -> {
         try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
+            return MessageDigest.getInstance("SHA-1");
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
+    });
+
+    /** A direct buffer for each thread to read files through while hashing
+     *  them. */
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(1 << 16));
+
+    /** Returns this thread's SHA-1 digest, reset. It must not be used past
+     *  the next call to any sha1 method on this thread. */
+    static MessageDigest sha1Digest() {
+        MessageDigest md = SHA1.get();
+        md.reset();
+        return md;
+    }
+
+    /** Returns the raw SHA-1 hash of the concatenation of VALS, which may
+     *  be any mixture of byte arrays, Strings (hashed as UTF-8) and
+     *  ByteBuffers (whose remaining bytes are hashed and consumed). */
+    static byte[] sha1Bytes(Object... vals) {
+        MessageDigest md = sha1Digest();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else if (val instanceof ByteBuffer) {
+                md.update((ByteBuffer) val);
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
+            }
+        }
+        return md.digest();
+    }
+
+    /** Returns the SHA-1 hash of the concatenation of VALS, which may
+     *  be any mixture of byte arrays, Strings and ByteBuffers, as for
+     *  sha1Bytes. */
+    static String sha1(Object... vals) {
+        return bytesToHex(sha1Bytes(vals), 0, UID_BYTES);
     }
 
     /** Returns the SHA-1 hash of the concatenation of the strings in
@@ -61,6 +90,79 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the SHA-1 hash of the contents of FILE, which is read through
+     *  a fixed-size buffer so that it never has to fit in memory. */
+    static String sha1(File file) {
+        return bytesToHex(sha1Bytes(file), 0, UID_BYTES);
+    }
+
+    /** Returns the raw SHA-1 hash of the contents of FILE, as for sha1. */
+    static byte[] sha1Bytes(File file) {
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.READ)) {
+            MessageDigest md = sha1Digest();
+            ByteBuffer buffer = READ_BUFFER.get().clear();
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+            return md.digest();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** The length of a complete SHA-1 UID in raw bytes. */
+    static final int UID_BYTES = UID_LENGTH / 2;
+
+    /** The hexadecimal digits, by value. */
+    private static final byte[] HEX_DIGITS =
+        "0123456789abcdef".getBytes(StandardCharsets.ISO_8859_1);
+
+    /** The value of each ASCII hexadecimal digit, and -1 for other
+     *  characters. */
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int d = 0; d < 16; d += 1) {
+            HEX_VALUES[HEX_DIGITS[d]] = (byte) d;
+            HEX_VALUES[Character.toUpperCase(HEX_DIGITS[d])] = (byte) d;
+        }
+    }
+
+    /** Returns the value of the hexadecimal digit C, or -1. */
+    private static int hexValue(char c) {
+        return c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+    }
+
+    /** Returns the UID_BYTES raw bytes denoted by the hexadecimal UID ID. */
+    static byte[] hexToBytes(String id) {
+        byte[] result = new byte[id.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            int hi = hexValue(id.charAt(2 * i));
+            int lo = hexValue(id.charAt(2 * i + 1));
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("not a hexadecimal UID");
+            }
+            result[i] = (byte) ((hi << 4) | lo);
+        }
+        return result;
+    }
+
+    /** Returns the hexadecimal numeral of the LEN raw bytes of BYTES
+     *  starting at OFFSET. */
+    static String bytesToHex(byte[] bytes, int offset, int len) {
+        byte[] result = new byte[2 * len];
+        for (int i = 0; i < len; i += 1) {
+            int b = bytes[offset + i] & 0xff;
+            result[2 * i] = HEX_DIGITS[b >>> 4];
+            result[2 * i + 1] = HEX_DIGITS[b & 0xf];
+        }
+        return new String(result, StandardCharsets.ISO_8859_1);
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -223,6 +325,22 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from CONTENTS, casting it to
+     *  EXPECTEDCLASS. Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] contents,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(contents));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */
@@ -239,4 +357,18 @@ class Utils {
         System.out.printf(msg, args);
         System.out.println();
     }
+
+    /** Whether the time taken by each phase of a command is reported. */
+    static final boolean TIMINGS = Boolean.getBoolean("gitlet.timings");
+
+    /** Report on System.err, if TIMINGS is set, that PHASE started at
+     *  STARTNANOS (as returned by System.nanoTime) and ends now. Returns
+     *  the current time, which is when the next phase starts. */
+    static long timing(String phase, long startNanos) {
+        long now = System.nanoTime();
+        if (TIMINGS) {
+            System.err.printf("%-12s %10.3f ms%n", phase, (now - startNanos) / 1e6);
+        }
+        return now;
+    }
 }
@@ -0,0 +1,69 @@
+package gitlet;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** The plain files of the working directory and which of them changed
+ *  since StatIndex last verified them. The daemon keeps both up to date
+ *  from file-system events (see Daemon), so that listing the working
+ *  directory costs nothing and a file that has not changed since its stat
+ *  data was last checked is not even stat'ed again. Nothing is tracked in
+ *  a process that runs a single command: there every call lists CWD and
+ *  every file counts as changed. After an overflow of events, all files
+ *  count as changed and the listing is read afresh.
+ *
+ *  @author Xinpeng WU
+ */
+class WorkTree {
+    /** The plain files of CWD, or null if they are not tracked. */
+    private static SortedSet<String> files;
+    /** The files of FILES that changed since they were last verified. */
+    private static Set<String> changed;
+
+    /** Starts tracking the working directory, counting every file as
+     *  changed. */
+    static void track(){
+        files = plainFilenamesIn(CWD);
+        changed = new HashSet<>(files);
+    }
+
+    /** Reads the listing afresh after events were lost, if tracking. */
+    static void rescan(){
+        if (files != null){ track(); }
+    }
+
+    /** Notes an event about the working file NAME, which may have been
+     *  created, modified or deleted. */
+    static void changed(String name){
+        if (files == null){ return; }
+        if (join(CWD, name).isFile()){
+            files.add(name);
+            changed.add(name);
+        }else {
+            files.remove(name);
+            changed.remove(name);
+        }
+    }
+
+    /** Returns the plain files of CWD, as a set the caller may modify. */
+    static SortedSet<String> files(){
+        return files == null ? plainFilenamesIn(CWD) : new TreeSet<>(files);
+    }
+
+    /** Returns true if the working file NAME is known not to have changed
+     *  since it was last verified. May be called from several threads, as
+     *  long as no other method is running. */
+    static boolean unchanged(String name){
+        return files != null && files.contains(name) && !changed.contains(name);
+    }
+
+    /** Notes that the stat data of the working file NAME was just checked. */
+    static void verified(String name){
+        if (changed != null){ changed.remove(name); }
+    }
+}
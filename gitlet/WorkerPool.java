@@ -0,0 +1,65 @@
+package gitlet;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/** Runs per-file work, such as hashing or writing working files, for a batch
+ *  of files at once on a shared pool. The work is mostly waiting on the file
+ *  system, so the pool has two workers per core, up to MAX_WORKERS. Small
+ *  batches run on the calling thread. The first failure of any task is
+ *  rethrown on the calling thread once the batch is over.
+ *
+ *  @author Xinpeng WU
+ */
+class WorkerPool {
+    /** The largest number of workers. */
+    private static final int MAX_WORKERS = 64;
+    /** Batches smaller than this run on the calling thread. */
+    private static final int PARALLEL_THRESHOLD = 8;
+    /** The shared pool, whose workers are daemon threads. */
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Math.min(MAX_WORKERS, 2 * Runtime.getRuntime().availableProcessors()));
+
+    /** Returns the result of FN on each of ITEMS, keyed by item. */
+    static <T, R> Map<T, R> map(Collection<T> items, Function<T, R> fn){
+        if (items.size() < PARALLEL_THRESHOLD){
+            Map<T, R> results = new HashMap<>();
+            items.forEach(item -> results.put(item, fn.apply(item)));
+            return results;
+        }
+        return run(() -> items.parallelStream()
+                .collect(Collectors.toConcurrentMap(item -> item, fn)));
+    }
+
+    /** Applies ACTION to each of ITEMS. */
+    static <T> void forEach(Collection<T> items, Consumer<T> action){
+        if (items.size() < PARALLEL_THRESHOLD){
+            items.forEach(action);
+            return;
+        }
+        run(() -> {
+            items.parallelStream().forEach(action);
+            return null;
+        });
+    }
+
+    /** Runs TASK on the pool and returns its result. */
+    private static <R> R run(Callable<R> task){
+        try {
+            return POOL.submit(task).get();
+        } catch (InterruptedException excp){
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp){
+            if (excp.getCause() instanceof RuntimeException){
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause().getMessage());
+        }
+    }
+}